@@ -0,0 +1,129 @@
+/******************************************************************************
+ *  Compilation:  javac BoggleBenchmark.java
+ *  Execution:    java BoggleBenchmark dictionary.txt [seconds] [seed]
+ *  Dependencies: BoggleSolver.java BoggleDictionary.java BoggleBoard.java
+ *                In.java StdOut.java StdRandom.java Stopwatch.java
+ *
+ *  Throughput of the Boggle hot paths:
+ *
+ *   - build     compiling the dictionary into a BoggleDictionary
+ *   - scoreOf   lookups of the dictionary words, and of as many near misses
+ *               (the word with its last letter changed)
+ *   - 4x4, 5x5, 100x100
+ *               getAllValidWords() on a corpus of random boards made by
+ *               BoggleBoard(m, n) from the given seed, so runs compare
+ *
+ *  Each case first runs untimed for half the given seconds, then as many
+ *  operations as fit in the given seconds. Next to the time it reports the
+ *  bytes the thread allocated per operation and per second, and the number
+ *  of garbage collections during the timed run, so that a change that
+ *  makes the trie or the search allocate shows up here.
+ *
+ *  % java BoggleBenchmark words.txt 2
+ *  case          ops      us/op      ops/s   alloc MB/s   bytes/op   GCs
+ *  ...
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+public class BoggleBenchmark {
+
+    private static final int CORPUS = 1000;         // boards of each small size
+    private static final int LARGE_CORPUS = 4;      // 100-by-100 boards
+
+    // keeps the results of the operations alive, so none is optimized away
+    private static long sink;
+
+    private interface Case {
+        long run(int i);    // the i-th operation
+    }
+
+    // bytes allocated by this thread so far, or -1 if the JVM cannot tell
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // garbage collections so far, over all collectors
+    private static long collections() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            n += Math.max(gc.getCollectionCount(), 0);
+        return n;
+    }
+
+    private static void measure(String name, double seconds, Case c) {
+        Stopwatch warmup = new Stopwatch();
+        for (int i = 0; warmup.elapsedTime() < seconds / 2; i++)
+            sink += c.run(i);
+
+        long gcs = collections();
+        long bytes = allocatedBytes();
+        Stopwatch sw = new Stopwatch();
+        int ops = 0;
+        do {
+            sink += c.run(ops++);
+        } while (sw.elapsedTime() < seconds);
+        double time = sw.elapsedTime();
+        long allocated = bytes < 0 ? -1 : allocatedBytes() - bytes;
+        gcs = collections() - gcs;
+
+        double us = 1e6 * time / ops;
+        if (allocated < 0)
+            StdOut.printf("%-8s %9d %10.2f %10.0f %12s %10s %5d\n", name, ops, us, ops / time, "n/a", "n/a", gcs);
+        else
+            StdOut.printf("%-8s %9d %10.2f %10.0f %12.1f %10d %5d\n", name, ops, us, ops / time,
+                          allocated / 1e6 / time, allocated / ops, gcs);
+    }
+
+    private static BoggleBoard[] boards(int n, int rows, int cols) {
+        BoggleBoard[] a = new BoggleBoard[n];
+        for (int i = 0; i < n; i++)
+            a[i] = new BoggleBoard(rows, cols);
+        return a;
+    }
+
+    private static long solve(BoggleSolver solver, BoggleBoard board) {
+        long n = 0;
+        for (String word : solver.getAllValidWords(board))
+            n++;
+        return n;
+    }
+
+    public static void main(String[] args) {
+        String[] words = new In(args[0]).readAllStrings();
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2.0;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0x5EEDL;
+
+        StdRandom.setSeed(seed);
+        BoggleBoard[] small  = boards(CORPUS, 4, 4);
+        BoggleBoard[] medium = boards(CORPUS, 5, 5);
+        BoggleBoard[] large  = boards(LARGE_CORPUS, 100, 100);
+
+        // every word, and every word with its last letter changed
+        String[] queries = new String[2 * words.length];
+        for (int i = 0; i < words.length; i++) {
+            String w = words[i];
+            queries[2*i] = w;
+            char last = w.isEmpty() ? 'A' : w.charAt(w.length() - 1);
+            queries[2*i + 1] = w.isEmpty() ? "A" : w.substring(0, w.length() - 1) + (char) ('A' + (last - 'A' + 1) % 26);
+        }
+
+        BoggleSolver solver = new BoggleSolver(new BoggleDictionary(words));
+        StdOut.printf("%-8s %9s %10s %10s %12s %10s %5s\n", "case", "ops", "us/op", "ops/s", "alloc MB/s", "bytes/op", "GCs");
+        measure("build",   seconds, i -> new BoggleDictionary(words).size());
+        measure("scoreOf", seconds, i -> solver.scoreOf(queries[i % queries.length]));
+        measure("4x4",     seconds, i -> solve(solver, small[i % small.length]));
+        measure("5x5",     seconds, i -> solve(solver, medium[i % medium.length]));
+        measure("100x100", seconds, i -> solve(solver, large[i % large.length]));
+        if (sink == 42) StdOut.println();
+    }
+}
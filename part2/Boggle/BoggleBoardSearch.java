@@ -0,0 +1,256 @@
+/******************************************************************************
+ *  Compilation:  javac BoggleBoardSearch.java
+ *  Execution:    java BoggleBoardSearch dictionary [rows cols] [seconds] [workers] [megabytes]
+ *  Dependencies: IncrementalBoggleSolver.java BoggleDictionary.java BoggleSolver.java
+ *                BoggleBoard.java In.java StdOut.java Stopwatch.java
+ *
+ *  Searches for high-scoring boards of a given shape. Each worker runs
+ *  rounds of simulated annealing: it starts from a random board, changes
+ *  one cell at a time, keeps a change that raises the score and keeps one
+ *  that lowers it by d with probability exp(-d/T), where the temperature T
+ *  cools from START_TEMPERATURE to END_TEMPERATURE over the round. Workers
+ *  share the compiled dictionary and keep their board in an
+ *  IncrementalBoggleSolver, so a change costs only the paths through the
+ *  changed cell.
+ *
+ *  Every worker caches the scores of the boards it has seen in an LRU map
+ *  keyed by a 64-bit Zobrist hash of the board, which is updated with two
+ *  xors per change. A proposed board found in the cache is accepted or
+ *  rejected without touching the solver; a rejected one then costs nothing
+ *  instead of a change and its undo. Hash collisions can only mislead the
+ *  choice of move: scores are always read from the solver.
+ *
+ *  The caches and the solvers together stay within the given memory
+ *  budget. The dictionary, shared, is not counted.
+ *
+ *  The dictionary is a word list or a .bgd snapshot of BoggleDictionary.
+ *
+ *  % java BoggleBoardSearch words.txt 4 4 60 4 64
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.Stopwatch;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BoggleBoardSearch {
+
+    private static final int R = BoggleDictionary.R;
+
+    private static final int STEPS = 20000;                 // changes per round
+    private static final double START_TEMPERATURE = 100.0;
+    private static final double END_TEMPERATURE = 0.5;
+
+    // approximate heap bytes of one cache entry: the map entry, its table
+    // slot, and the boxed key and value
+    private static final int ENTRY_BYTES = 96;
+
+    private final BoggleDictionary dict;
+    private final int rows, cols;
+    private final int workers;
+    private final int capacity;             // cache entries per worker
+    private final long seed;
+    private final long[][] zobrist;         // zobrist[v][c], the hash of letter c in cell v
+
+    private volatile boolean stop;
+    private volatile int bestScore = -1;
+    private char[][] best;                  // guarded by this
+
+    // progress, summed over the workers
+    private final LongAdder proposals = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rounds = new LongAdder();
+
+    // a search for rows-by-cols boards with the given number of workers, whose
+    // caches and solvers use at most memoryBytes; seed makes the workers' moves repeatable
+    public BoggleBoardSearch(BoggleDictionary dictionary, int rows, int cols, int workers, long memoryBytes, long seed) {
+        if (dictionary == null) throw new IllegalArgumentException();
+        if (rows <= 0 || cols <= 0 || rows * cols > BoggleGrid.MAX_MASK_CELLS)
+            throw new IllegalArgumentException("boards have 1 to " + BoggleGrid.MAX_MASK_CELLS + " cells");
+        if (workers <= 0) throw new IllegalArgumentException("workers must be positive");
+        this.dict = dictionary;
+        this.rows = rows;
+        this.cols = cols;
+        this.workers = workers;
+        this.seed = seed;
+
+        // an IncrementalBoggleSolver keeps an int per trie node, plus its found words
+        long solverBytes = 4L * dict.size() + (1 << 20);
+        long perWorker = memoryBytes / workers - solverBytes;
+        if (perWorker < 1024L * ENTRY_BYTES)
+            throw new IllegalArgumentException("memory budget too small: " + workers + " workers need at least "
+                                               + workers * (solverBytes + 1024L * ENTRY_BYTES) + " bytes");
+        capacity = (int) Math.min(perWorker / ENTRY_BYTES, 1 << 30);
+
+        Random random = new Random(seed);
+        zobrist = new long[rows * cols][R];
+        for (long[] z : zobrist)
+            for (int c = 0; c < R; c++)
+                z[c] = random.nextLong();
+    }
+
+    // runs the workers for the given number of seconds and returns the best board
+    // found; prints a progress line every progressSeconds if that is positive
+    public BoggleBoard search(double seconds, double progressSeconds) {
+        stop = false;
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for (int w = 0; w < workers; w++) {
+            long workerSeed = seed + w + 1;
+            tasks.add(pool.submit(() -> work(new Random(workerSeed))));
+        }
+        Stopwatch sw = new Stopwatch();
+        try {
+            double left;
+            while ((left = seconds - sw.elapsedTime()) > 0) {
+                double nap = progressSeconds > 0 ? Math.min(progressSeconds, left) : left;
+                Thread.sleep((long) Math.ceil(1000 * nap));
+                if (progressSeconds > 0) progress(sw.elapsedTime());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            stop = true;
+            for (ForkJoinTask<?> task : tasks)
+                task.join();
+            pool.shutdown();
+        }
+        return best();
+    }
+
+    private void progress(double elapsed) {
+        long n = proposals.sum();
+        StdOut.printf("%7.1f s  best %5d  boards %11d  %9.0f/s  cache hits %5.1f%%  accepted %5.1f%%  rounds %d\n",
+                      elapsed, bestScore, n, n / Math.max(elapsed, 1e-3),
+                      100.0 * hits.sum() / Math.max(n, 1), 100.0 * accepted.sum() / Math.max(n, 1), rounds.sum());
+    }
+
+    // the best board found so far, or null if none was scored yet
+    public synchronized BoggleBoard best() {
+        if (best == null) return null;
+        return new BoggleBoard(best);
+    }
+
+    // score of the best board found so far, -1 if none was scored yet
+    public int bestScore() {
+        return bestScore;
+    }
+
+    // cache entries each worker keeps
+    public int cacheCapacity() {
+        return capacity;
+    }
+
+    private synchronized void offer(int score, char[][] a) {
+        if (score <= bestScore) return;
+        best = new char[rows][];
+        for (int i = 0; i < rows; i++)
+            best[i] = a[i].clone();
+        bestScore = score;
+    }
+
+    private long hash(char[][] a) {
+        long h = 0;
+        for (int i = 0; i < rows; i++)
+            for (int j = 0; j < cols; j++)
+                h ^= zobrist[i*cols + j][a[i][j] - 'A'];
+        return h;
+    }
+
+    // rounds of annealing until stopped
+    private void work(Random random) {
+        IncrementalBoggleSolver solver = new IncrementalBoggleSolver(dict);
+        Map<Long, Integer> cache = new LinkedHashMap<Long, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+                return size() > capacity;
+            }
+        };
+        double cooling = Math.pow(END_TEMPERATURE / START_TEMPERATURE, 1.0 / STEPS);
+        char[][] a = new char[rows][cols];
+        while (!stop) {
+            for (int i = 0; i < rows; i++)
+                for (int j = 0; j < cols; j++)
+                    a[i][j] = (char) ('A' + random.nextInt(R));
+            int score = solver.load(new BoggleBoard(a));
+            long hash = hash(a);
+            cache.put(hash, score);
+            if (score > bestScore) offer(score, a);
+
+            double t = START_TEMPERATURE;
+            for (int step = 0; step < STEPS && !stop; step++, t *= cooling) {
+                int i = random.nextInt(rows), j = random.nextInt(cols);
+                char c = (char) ('A' + random.nextInt(R));
+                if (c == a[i][j]) continue;
+                int v = i*cols + j;
+                long next = hash ^ zobrist[v][a[i][j] - 'A'] ^ zobrist[v][c - 'A'];
+                proposals.increment();
+                Integer known = cache.get(next);
+                if (known != null) {
+                    hits.increment();
+                    if (!accept(known - score, t, random)) continue;
+                    solver.applyChange(i, j, c);
+                }
+                else {
+                    int delta = solver.applyChange(i, j, c);
+                    cache.put(next, score + delta);
+                    if (!accept(delta, t, random)) {
+                        solver.applyChange(i, j, a[i][j]);
+                        continue;
+                    }
+                }
+                accepted.increment();
+                a[i][j] = c;
+                hash = next;
+                score = solver.score();
+                if (score > bestScore) offer(score, a);
+            }
+            rounds.increment();
+        }
+    }
+
+    // Metropolis rule: always take an improvement, and a loss of -delta with probability exp(delta/t)
+    private static boolean accept(int delta, double t, Random random) {
+        return delta >= 0 || random.nextDouble() < Math.exp(delta / t);
+    }
+
+    public static void main(String[] args) {
+        BoggleDictionary dictionary;
+        if (args[0].endsWith(".bgd")) dictionary = BoggleDictionary.open(Paths.get(args[0]));
+        else                          dictionary = new BoggleDictionary(new In(args[0]).readAllStrings());
+        int rows = args.length > 2 ? Integer.parseInt(args[1]) : 4;
+        int cols = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+        int workers = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        long megabytes = args.length > 5 ? Long.parseLong(args[5]) : 64;
+
+        BoggleBoardSearch search = new BoggleBoardSearch(dictionary, rows, cols, workers, megabytes << 20,
+                                                         System.nanoTime());
+        StdOut.printf("%d workers, %d cached boards each\n", workers, search.cacheCapacity());
+        BoggleBoard board = search.search(seconds, Math.max(1, seconds / 10));
+        if (board == null) {
+            StdOut.println("no board found");
+            return;
+        }
+
+        // score the winner again from scratch
+        BoggleSolver solver = new BoggleSolver(dictionary);
+        int score = 0;
+        for (String word : solver.getAllValidWords(board))
+            score += solver.scoreOf(word);
+        StdOut.println(board);
+        StdOut.println("Score = " + score);
+    }
+}
@@ -0,0 +1,257 @@
+/******************************************************************************
+ *  Compilation:  javac BoggleDictionary.java
+ *  Execution:    java BoggleDictionary dictionary.txt [snapshot.bgd]
+ *  Dependencies: In.java StdOut.java
+ *
+ *  Immutable dictionary of Boggle words, compiled into a trie held in one
+ *  int array. The children of a node are numbered consecutively, so
+ *  a node only stores
+ *
+ *      node[4x]        bits 0..25   one bit per letter that has a child
+ *                      bits 26..29  score of the word ending at x, 0 if none
+ *      node[4x + 1]    number of the first child of x
+ *      node[4x + 2]    letters every word below x uses at least once
+ *      node[4x + 3]    bits 0..25   letters every word below x uses at least twice
+ *                      bits 26..31  height of x, capped at 63
+ *
+ *  and the child for letter c is first + the number of child bits below c.
+ *  That is 16 bytes a node instead of an object and a 26-entry array, and
+ *  the children of a node sit next to each other in memory.
+ *
+ *  The last two fields are letter-count signatures: a board that lacks one
+ *  of the letters, or has only one copy of a letter needed twice, cannot
+ *  hold any word below x, and fits() lets the search skip the subtrie.
+ *  The height of x is the number of letters the longest word below x has
+ *  after the prefix of x.
+ *
+ *  A dictionary is never modified after construction and can be shared by
+ *  any number of solvers. write() saves it as a snapshot, which open() maps
+ *  back without reading or allocating anything per node, so processes on
+ *  one machine share the pages of the file:
+ *
+ *      int     MAGIC
+ *      int     VERSION
+ *      int     number of nodes
+ *      int[]   the nodes as above, little-endian
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class BoggleDictionary {
+
+    public static final int R = 26;
+    public static final int ROOT = 0;
+    public static final int MAX_HEIGHT = 63;
+
+    private static final int[] SCORES = {0, 0, 0, 1, 1, 2, 3, 5, 11};
+    private static final int SCORE_SHIFT = R;
+    private static final int ALL = (1 << R) - 1;
+    private static final int STRIDE = 4;
+
+    private static final int HEIGHT_SHIFT = R;
+
+    private static final int MAGIC = 0x42474431;    // "BGD1"
+    private static final int VERSION = 2;           // version 1 had no heights
+    private static final int HEADER = 3;            // ints before the nodes of a snapshot
+
+    private final int[] array;      // the nodes of a compiled dictionary, or null
+    private final IntBuffer node;   // the nodes of a mapped snapshot, or null
+    private final int size;
+
+    // compiles the given words, which must contain only the uppercase letters A through Z
+    public BoggleDictionary(String[] dictionary) {
+        if (dictionary == null) throw new IllegalArgumentException();
+        String[] a = dictionary.clone();
+        long chars = 1;
+        for (String word : a) {
+            if (word == null) throw new IllegalArgumentException();
+            for (int i = 0; i < word.length(); i++)
+                if (word.charAt(i) < 'A' || word.charAt(i) > 'Z')
+                    throw new IllegalArgumentException("invalid character: " + word.charAt(i));
+            chars += word.length();
+        }
+        if (chars > Integer.MAX_VALUE / STRIDE) throw new IllegalArgumentException("dictionary too large");
+        Arrays.sort(a);
+        int[] nodes = new int[STRIDE * (int) chars];
+        size = build(a, 0, a.length, 0, ROOT, nodes, 1);
+        array = Arrays.copyOf(nodes, STRIDE * size);
+        node = null;
+    }
+
+    private BoggleDictionary(IntBuffer node, int size) {
+        this.array = null;
+        this.node = node;
+        this.size = size;
+    }
+
+    // maps a snapshot written by write()
+    public static BoggleDictionary open(Path file) {
+        if (file == null) throw new IllegalArgumentException();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() < 4 * HEADER) throw new IOException("not a dictionary snapshot: " + file);
+            IntBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, 4 * HEADER)
+                                 .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            if (header.get(0) != MAGIC) throw new IOException("not a dictionary snapshot: " + file);
+            if (header.get(1) != VERSION) throw new IOException("unsupported snapshot version " + header.get(1));
+            int size = header.get(2);
+            if (size <= 0 || ch.size() != 4L * HEADER + 4L * STRIDE * size)
+                throw new IOException("corrupt dictionary snapshot: " + file);
+            // the mapping stays valid after the channel is closed
+            IntBuffer node = ch.map(FileChannel.MapMode.READ_ONLY, 4 * HEADER, 4L * STRIDE * size)
+                               .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            return new BoggleDictionary(node, size);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // writes this dictionary as a snapshot that open() can map
+    public void write(Path file) {
+        if (file == null) throw new IllegalArgumentException();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                                               StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(size);
+            for (int i = 0; i < STRIDE * size; i++) {
+                if (!buf.hasRemaining()) {
+                    buf.flip();
+                    while (buf.hasRemaining())
+                        ch.write(buf);
+                    buf.clear();
+                }
+                buf.putInt(get(i));
+            }
+            buf.flip();
+            while (buf.hasRemaining())
+                ch.write(buf);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // fills in node x, the prefix of length d shared by a[lo..hi), and the
+    // subtries below it, whose nodes are numbered from next; returns the next free number
+    private static int build(String[] a, int lo, int hi, int d, int x, int[] nodes, int next) {
+        int score = 0;
+        int once = ALL, twice = ALL;    // no word below yet; only words that score count
+        while (lo < hi && a[lo].length() == d) {
+            score = score(a[lo]);
+            if (score > 0) {
+                once  &= letters(a[lo], 1);
+                twice &= letters(a[lo], 2);
+            }
+            lo++;
+        }
+        int mask = 0;
+        for (int i = lo; i < hi; i++)
+            mask |= 1 << (a[i].charAt(d) - 'A');
+        int height = 0;
+        int first = next;
+        next += Integer.bitCount(mask);
+        for (int i = lo, child = first; i < hi; child++) {
+            char c = a[i].charAt(d);
+            int j = i + 1;
+            while (j < hi && a[j].charAt(d) == c)
+                j++;
+            next = build(a, i, j, d + 1, child, nodes, next);
+            once  &= nodes[STRIDE*child + 2];
+            twice &= nodes[STRIDE*child + 3] & ALL;
+            height = Math.max(height, 1 + (nodes[STRIDE*child + 3] >>> HEIGHT_SHIFT));
+            i = j;
+        }
+        nodes[STRIDE*x]     = (score << SCORE_SHIFT) | mask;
+        nodes[STRIDE*x + 1] = first;
+        nodes[STRIDE*x + 2] = once;
+        nodes[STRIDE*x + 3] = (Math.min(height, MAX_HEIGHT) << HEIGHT_SHIFT) | twice;
+        return next;
+    }
+
+    // letters that occur at least k times in word
+    private static int letters(String word, int k) {
+        int[] count = new int[R];
+        int mask = 0;
+        for (int i = 0; i < word.length(); i++) {
+            int c = word.charAt(i) - 'A';
+            if (++count[c] >= k) mask |= 1 << c;
+        }
+        return mask;
+    }
+
+    private static int score(String word) {
+        return SCORES[Math.min(word.length(), SCORES.length - 1)];
+    }
+
+    // entry i of the nodes, from whichever of array and node holds them
+    private int get(int i) {
+        return array != null ? array[i] : node.get(i);
+    }
+
+    // the child of node x for letter c (0 for 'A' .. 25 for 'Z'), or -1 if there is none
+    public int child(int x, int c) {
+        int mask = get(STRIDE*x);
+        int bit = 1 << c;
+        if ((mask & bit) == 0) return -1;
+        return get(STRIDE*x + 1) + Integer.bitCount(mask & (bit - 1));
+    }
+
+    // could a board whose letters are once (present) and twice (present at
+    // least twice) hold a word below node x? Both are masks with bit c for letter c
+    public boolean fits(int x, int once, int twice) {
+        return ((get(STRIDE*x + 2) & ~once) | (get(STRIDE*x + 3) & ~twice & ALL)) == 0;
+    }
+
+    // letters in the longest word below node x after the prefix of x;
+    // MAX_HEIGHT stands for MAX_HEIGHT or more
+    public int height(int x) {
+        return get(STRIDE*x + 3) >>> HEIGHT_SHIFT;
+    }
+
+    // score of the word that ends at node x, 0 if no word of 3 or more letters ends there
+    public int score(int x) {
+        return get(STRIDE*x) >>> SCORE_SHIFT;
+    }
+
+    // node of the given word, or -1 if it is not a prefix of any word
+    private int find(String word) {
+        int x = ROOT;
+        for (int i = 0; i < word.length() && x >= 0; i++) {
+            int c = word.charAt(i) - 'A';
+            if (c < 0 || c >= R) return -1;
+            x = child(x, c);
+        }
+        return x;
+    }
+
+    // score of the given word if it is in the dictionary, zero otherwise
+    public int scoreOf(String word) {
+        if (word == null) throw new IllegalArgumentException();
+        int x = find(word);
+        return x < 0 ? 0 : score(x);
+    }
+
+    // number of trie nodes
+    public int size() {
+        return size;
+    }
+
+    public static void main(String[] args) {
+        In in = new In(args[0]);
+        BoggleDictionary dictionary = new BoggleDictionary(in.readAllStrings());
+        StdOut.println(dictionary.size() + " nodes, " + 4L * STRIDE * dictionary.size() + " bytes");
+        if (args.length > 1) dictionary.write(Paths.get(args[1]));
+    }
+}
@@ -0,0 +1,85 @@
+/******************************************************************************
+ *  Compilation:  javac BoggleGrid.java
+ *  Execution:    none
+ *  Dependencies: BoggleBoard.java
+ *
+ *  A Boggle board flattened for searching. Cell (i, j) is number i*cols + j,
+ *  letters are kept as 0 for 'A' .. 25 for 'Z', and the neighbors of cell v
+ *  are neighbor[first[v] .. first[v+1]), computed once per board shape, so
+ *  the search never checks bounds or calls getLetter().
+ *
+ ******************************************************************************/
+
+import java.util.Arrays;
+
+public class BoggleGrid {
+
+    // boards with at most this many cells can keep their visited set in a long
+    public static final int MAX_MASK_CELLS = 64;
+
+    private final int rows;
+    private final int cols;
+    private final int[] letter;
+    private final int[] first;
+    private final int[] neighbor;
+
+    // an empty grid of the given shape
+    public BoggleGrid(int rows, int cols) {
+        if (rows <= 0 || cols <= 0) throw new IllegalArgumentException();
+        this.rows = rows;
+        this.cols = cols;
+        int cells = rows * cols;
+        letter = new int[cells];
+        first = new int[cells + 1];
+        int[] adj = new int[8 * cells];
+        int k = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                first[i*cols + j] = k;
+                for (int di = -1; di <= 1; di++)
+                    for (int dj = -1; dj <= 1; dj++) {
+                        int row = i + di, col = j + dj;
+                        if ((di != 0 || dj != 0) && row >= 0 && row < rows && col >= 0 && col < cols)
+                            adj[k++] = row*cols + col;
+                    }
+            }
+        }
+        first[cells] = k;
+        neighbor = Arrays.copyOf(adj, k);
+    }
+
+    // a grid holding the letters of board
+    public BoggleGrid(BoggleBoard board) {
+        this(board.rows(), board.cols());
+        load(board);
+    }
+
+    // replaces the letters with those of board, which must have the same shape
+    public void load(BoggleBoard board) {
+        if (board.rows() != rows || board.cols() != cols) throw new IllegalArgumentException("board shape differs");
+        for (int i = 0; i < rows; i++)
+            for (int j = 0; j < cols; j++)
+                letter[i*cols + j] = board.getLetter(i, j) - 'A';
+    }
+
+    public int rows()  { return rows; }
+    public int cols()  { return cols; }
+    public int cells() { return letter.length; }
+
+    // letter of cell v, 0 for 'A' .. 25 for 'Z'
+    public int letter(int v) {
+        return letter[v];
+    }
+
+    // sets the letter of cell v, 0 for 'A' .. 25 for 'Z'
+    public void setLetter(int v, int c) {
+        if (c < 0 || c >= BoggleDictionary.R) throw new IllegalArgumentException();
+        letter[v] = c;
+    }
+
+    // the tables themselves, not copies, for the search loops of the solver:
+    // the neighbors of cell v are neighbors()[firstNeighbors()[v] .. firstNeighbors()[v+1])
+    int[] letters()        { return letter;   }
+    int[] firstNeighbors() { return first;    }
+    int[] neighbors()      { return neighbor; }
+}
@@ -1,133 +1,211 @@
-import java.util.Set;
-import java.util.HashSet;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.nio.file.Paths;
 import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdOut;
 
 public class BoggleSolver
 {
 
-    private static final int R = 26;
-    private static final int[] SCORES = {0, 0, 0, 1, 1, 2, 3, 5, 11};
-    private Node root;
+    private static final int Q = 'Q' - 'A';
+    private static final int U = 'U' - 'A';
+    private static final int BATCH = 64;    // boards per task of solveAll()
+    private final BoggleDictionary dict;
 
-    private int r;
-    private int c;
-    private BoggleBoard b;
-    private boolean[][] mark;
-
-    private static class Node {
-        private Object val;
-        private Node[] next = new Node[R];
-    }
+    // scratch state of the searches running on each thread
+    private final ThreadLocal<Search> searches = ThreadLocal.withInitial(Search::new);
 
     // Initializes the data structure using the given array of strings as the dictionary.
     // (You can assume each word in the dictionary contains only the uppercase letters A through Z.)
     public BoggleSolver(String[] dictionary) {
-        if (dictionary == null) throw new IllegalArgumentException();
-        for (int i = 0; i < dictionary.length; i++) {
-            put(dictionary[i], score(dictionary[i]));
-        }
+        this(new BoggleDictionary(dictionary));
     }
 
-    private int get(String key) {
-        if (key == null) throw new IllegalArgumentException();
-        Node x = get(root, key, 0);
-        if (x == null || x.val == null) return 0;
-        return (Integer) x.val;
+    // Initializes the data structure with a compiled dictionary, which may be shared with other solvers.
+    public BoggleSolver(BoggleDictionary dictionary) {
+        if (dictionary == null) throw new IllegalArgumentException();
+        dict = dictionary;
     }
 
-    private Node get(Node x, String key, int d) {
-        if (x == null) return null;
-        if (d == key.length()) return x;
-        char ch = key.charAt(d);
-        return get(x.next[ch - 'A'], key, d + 1);
+    // Returns the set of all valid words in the given Boggle board, as an Iterable.
+    // Safe to call from several threads at once.
+    public Iterable<String> getAllValidWords(BoggleBoard board) {
+        if (board == null) throw new IllegalArgumentException();
+        return searches.get().solve(board);
     }
 
-    private boolean contains(String key) {
-        return get(key) != 0;
+    // Returns the valid words of every board, in the order of boards, solving them on the common pool.
+    public List<Iterable<String>> solveAll(Iterable<BoggleBoard> boards) {
+        return solveAll(boards, ForkJoinPool.commonPool());
     }
 
-    private void put(String key, int val) {
-        if (key == null) throw new IllegalArgumentException();
-        root = put(root, key, val, 0);
+    // Returns the valid words of every board, in the order of boards, solving
+    // batches of boards as tasks of the given pool. Boards are read from the
+    // iterator as the pool keeps up, so at most a few batches per worker wait.
+    public List<Iterable<String>> solveAll(Iterable<BoggleBoard> boards, ForkJoinPool pool) {
+        if (boards == null || pool == null) throw new IllegalArgumentException();
+        List<Iterable<String>> result = new ArrayList<Iterable<String>>();
+        Deque<ForkJoinTask<List<Iterable<String>>>> window = new ArrayDeque<ForkJoinTask<List<Iterable<String>>>>();
+        int limit = 2 * pool.getParallelism();
+        Iterator<BoggleBoard> it = boards.iterator();
+        while (it.hasNext()) {
+            List<BoggleBoard> batch = new ArrayList<BoggleBoard>(BATCH);
+            while (it.hasNext() && batch.size() < BATCH) {
+                BoggleBoard board = it.next();
+                if (board == null) throw new IllegalArgumentException();
+                batch.add(board);
+            }
+            window.addLast(pool.submit(() -> {
+                Search search = searches.get();
+                List<Iterable<String>> words = new ArrayList<Iterable<String>>(batch.size());
+                for (BoggleBoard board : batch)
+                    words.add(search.solve(board));
+                return words;
+            }));
+            if (window.size() >= limit) result.addAll(window.removeFirst().join());
+        }
+        while (!window.isEmpty())
+            result.addAll(window.removeFirst().join());
+        return result;
     }
 
-    private Node put(Node x, String key, int val, int d) {
-        if (x == null) x = new Node();
-        if (d == key.length()) {
-            x.val = val;
-            return x;
+    // the board being solved, and the state of the depth-first search over it
+    private final class Search {
+        private BoggleGrid grid;
+        private int[] letter;
+        private int[] first;
+        private int[] neighbor;
+        private long[] visited;                     // visited cells of boards too big for a long mask
+
+        private char[] path = new char[0];          // letters of the current path, QU as two
+        private int[] found = new int[dict.size()]; // found[x] == generation if the word at node x was found
+        private int generation;                     // number of the current solve
+        private List<String> words;
+        private int node;                           // trie node reached by the last successful extend()
+        private int once;                           // letters on the board, Q counting as Q and U
+        private int twice;                          // letters on the board at least twice
+
+        List<String> solve(BoggleBoard board) {
+            if (grid == null || board.rows() != grid.rows() || board.cols() != grid.cols()) {
+                grid = new BoggleGrid(board.rows(), board.cols());
+                letter = grid.letters();
+                first = grid.firstNeighbors();
+                neighbor = grid.neighbors();
+                visited = new long[(grid.cells() + 63) >>> 6];
+                if (path.length < 2 * grid.cells()) path = new char[2 * grid.cells()];
+            }
+            grid.load(board);
+            letterCounts();
+            // a new generation forgets the words found on earlier boards
+            if (++generation == 0) {
+                Arrays.fill(found, 0);
+                generation = 1;
+            }
+            words = new ArrayList<String>();
+            boolean small = grid.cells() <= BoggleGrid.MAX_MASK_CELLS;
+            for (int v = 0; v < grid.cells(); v++) {
+                if (small) step(BoggleDictionary.ROOT, v, 0, 0L);
+                else       step(BoggleDictionary.ROOT, v, 0);
+            }
+            List<String> result = words;
+            words = null;
+            Collections.sort(result);
+            return result;
         }
-        char ch = key.charAt(d);
-        x.next[ch - 'A'] = put(x.next[ch - 'A'], key, val, d + 1);
-        return x;
-    }
 
-    private int score(String word) {
-        return SCORES[Math.min(word.length(), SCORES.length - 1)];
-    }
+        // the letter masks of the board, for pruning with BoggleDictionary.fits()
+        private void letterCounts() {
+            once = 0;
+            twice = 0;
+            for (int v = 0; v < letter.length; v++) {
+                add(letter[v]);
+                if (letter[v] == Q) add(U);
+            }
+        }
 
-    // Returns the set of all valid words in the given Boggle board, as an Iterable.
-    public Iterable<String> getAllValidWords(BoggleBoard board) {
-        if (board == null) throw new IllegalArgumentException();
-        Set<String> res = new HashSet<String>();
-        r = board.rows();
-        c = board.cols();
-        b = board;
-        mark = new boolean[r][c];
-        for (int i = 0; i < r; i++) {
-            for (int j = 0; j < c; j++) {
-                dfa(root, i, j, "", res);
+        private void add(int c) {
+            int bit = 1 << c;
+            if ((once & bit) != 0) twice |= bit;
+            once |= bit;
+        }
+
+        // the child of x for the letter of cell v, appended to the path at len;
+        // returns the new path length, or -1 if the trie has no such child or
+        // the board lacks letters that every word below the child needs
+        private int extend(int x, int v, int len) {
+            int ch = letter[v];
+            int y = dict.child(x, ch);
+            if (y < 0) return -1;
+            path[len++] = (char) ('A' + ch);
+            if (ch == Q) {
+                y = dict.child(y, U);
+                if (y < 0) return -1;
+                path[len++] = 'U';
             }
+            if (!dict.fits(y, once, twice)) return -1;
+            node = y;
+            return len;
         }
-        List<String> list = new ArrayList<String>(res);
-        Collections.sort(list);
-        return list;
-    }
 
-    private void dfa(Node x, int i, int j, String key, Set<String> res) {
-        if (x == null) return;
-        char ch = b.getLetter(i, j);
-        if (ch == 'Q' && x.next['Q' - 'A'] != null)
-            dfs(x.next['Q' - 'A'].next['U' - 'A'], key + "QU", i, j, res);
-        else
-            dfs(x.next[ch - 'A'], key + ch, i, j, res);
-    }
+        private void found(int x, int len) {
+            if (dict.score(x) > 0 && found[x] != generation) {
+                found[x] = generation;
+                words.add(new String(path, 0, len));
+            }
+        }
 
-    private void dfs(Node x, String key, int i, int j, Set<String> res) {
-        int len = key.length();
-        if (x == null) return;
-        if (x.val != null && len >= 3) {
-            res.add(key);
+        // steps from trie node x, at path length len, onto cell v; mask holds the visited cells
+        private void step(int x, int v, int len, long mask) {
+            len = extend(x, v, len);
+            if (len < 0) return;
+            x = node;
+            found(x, len);
+            mask |= 1L << v;
+            for (int k = first[v]; k < first[v+1]; k++) {
+                int w = neighbor[k];
+                if ((mask & (1L << w)) == 0) step(x, w, len, mask);
+            }
         }
-        mark[i][j] = true;
-        for (int m = -1; m <= 1; m++) {
-            for (int n = -1; n <= 1; n++) {
-                int row = i + m;
-                int col = j + n;
-                if (row >= 0 && row < r && col >= 0 && col < c)
-                    if (!mark[row][col])
-                        dfa(x, row, col, key, res);
+
+        // as above, for boards of more than 64 cells, with the visited cells in visited[]
+        private void step(int x, int v, int len) {
+            len = extend(x, v, len);
+            if (len < 0) return;
+            x = node;
+            found(x, len);
+            visited[v >>> 6] |= 1L << v;
+            for (int k = first[v]; k < first[v+1]; k++) {
+                int w = neighbor[k];
+                if ((visited[w >>> 6] & (1L << w)) == 0) step(x, w, len);
             }
+            visited[v >>> 6] &= ~(1L << v);
         }
-        mark[i][j] = false;
     }
 
     // Returns the score of the given word if it is in the dictionary, zero otherwise.
     // (You can assume the word contains only the uppercase letters A through Z.)
     public int scoreOf(String word) {
-        if (word == null) throw new IllegalArgumentException();
-        if (!contains(word)) return 0;
-        return score(word);
+        return dict.scoreOf(word);
     }
 
     public static void main(String[] args) {
-        In in = new In(args[0]);
-        String[] dictionary = in.readAllStrings();
-        BoggleSolver solver = new BoggleSolver(dictionary);
+        // a .bgd file is a snapshot written by BoggleDictionary
+        BoggleSolver solver;
+        if (args[0].endsWith(".bgd")) {
+            solver = new BoggleSolver(BoggleDictionary.open(Paths.get(args[0])));
+        }
+        else {
+            In in = new In(args[0]);
+            String[] dictionary = in.readAllStrings();
+            solver = new BoggleSolver(dictionary);
+        }
         BoggleBoard board = new BoggleBoard(args[1]);
         int score = 0;
         for (String word : solver.getAllValidWords(board)) {
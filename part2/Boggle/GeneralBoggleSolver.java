@@ -0,0 +1,262 @@
+/******************************************************************************
+ *  Compilation:  javac GeneralBoggleSolver.java
+ *  Execution:    java GeneralBoggleSolver dictionary.txt board.txt
+ *  Dependencies: BoggleGrid.java BoggleBoard.java In.java StdOut.java
+ *
+ *  Boggle solver for any alphabet and any board size. BoggleSolver is fixed
+ *  to the 26 letters A .. Z with Q standing for QU; here
+ *
+ *   - words may use any chars, and the trie stores one label per node and
+ *     finds a child by binary search among its siblings, so its size
+ *     depends on the dictionary only, not on the size of the alphabet
+ *   - every cell holds a tile, a non-empty string that a path spells out in
+ *     full (the tile "QU" of English Boggle, "CH" or "LL" of Spanish, or
+ *     one letter), so the mapping from cells to letters is up to the caller
+ *   - the search keeps its own stack, so long paths on big boards cannot
+ *     overflow the call stack, and all its scratch space is proportional
+ *     to the number of cells and the length of the longest word
+ *
+ *  The trie is laid out breadth first: the children of node x are
+ *  first[x] .. first[x+1]-1, sorted by label.
+ *
+ *  Boards are given as String[rows][cols] of tiles, or as a BoggleBoard.
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class GeneralBoggleSolver {
+
+    private static final int[] SCORES = {0, 0, 0, 1, 1, 2, 3, 5, 11};
+    private static final int ROOT = 0;
+
+    private final char[] label;     // label of the edge into each node
+    private final int[] first;      // first child of each node; first[size] ends the last node's children
+    private final byte[] score;     // score of the word ending at each node, 0 if none
+    private final int maxLength;    // length of the longest word
+
+    // scratch state of the searches running on each thread
+    private final ThreadLocal<Search> searches = ThreadLocal.withInitial(Search::new);
+
+    // Initializes the solver with the given words, which may contain any chars.
+    public GeneralBoggleSolver(String[] dictionary) {
+        if (dictionary == null) throw new IllegalArgumentException();
+        String[] a = dictionary.clone();
+        long chars = 1;
+        int longest = 0;
+        for (String word : a) {
+            if (word == null) throw new IllegalArgumentException();
+            chars += word.length();
+            longest = Math.max(longest, word.length());
+        }
+        if (chars >= Integer.MAX_VALUE) throw new IllegalArgumentException("dictionary too large");
+        Arrays.sort(a);
+        maxLength = longest;
+
+        // breadth-first over groups of words with a common prefix: node k covers
+        // a[lo[k]..hi[k]), whose first depth[k] chars are the path to k
+        int n = (int) chars;
+        char[] lab = new char[n];
+        int[] fst = new int[n + 1];
+        byte[] scr = new byte[n];
+        int[] lo = new int[n], hi = new int[n], depth = new int[n];
+        lo[ROOT] = 0;
+        hi[ROOT] = a.length;
+        int size = 1;
+        for (int x = 0; x < size; x++) {
+            int i = lo[x], d = depth[x];
+            while (i < hi[x] && a[i].length() == d) {
+                scr[x] = (byte) SCORES[Math.min(d, SCORES.length - 1)];
+                i++;
+            }
+            fst[x] = size;
+            while (i < hi[x]) {
+                char c = a[i].charAt(d);
+                int j = i + 1;
+                while (j < hi[x] && a[j].charAt(d) == c)
+                    j++;
+                lab[size] = c;
+                lo[size] = i;
+                hi[size] = j;
+                depth[size] = d + 1;
+                size++;
+                i = j;
+            }
+        }
+        fst[size] = size;
+        label = Arrays.copyOf(lab, size);
+        first = Arrays.copyOf(fst, size + 1);
+        score = Arrays.copyOf(scr, size);
+    }
+
+    // the child of node x labelled c, or -1 if there is none
+    private int child(int x, char c) {
+        int lo = first[x], hi = first[x+1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if      (label[mid] < c) lo = mid + 1;
+            else if (label[mid] > c) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    // the node reached from x by the chars of tile, or -1
+    private int walk(int x, char[] tile) {
+        for (int i = 0; i < tile.length && x >= 0; i++)
+            x = child(x, tile[i]);
+        return x;
+    }
+
+    // Returns the valid words of the board, sorted, where tiles[i][j] is the tile in row i and column j.
+    // Safe to call from several threads at once.
+    public List<String> getAllValidWords(String[][] tiles) {
+        if (tiles == null || tiles.length == 0 || tiles[0] == null || tiles[0].length == 0)
+            throw new IllegalArgumentException();
+        int cols = tiles[0].length;
+        for (String[] row : tiles) {
+            if (row == null || row.length != cols) throw new IllegalArgumentException("ragged board");
+            for (String tile : row)
+                if (tile == null || tile.isEmpty()) throw new IllegalArgumentException("empty tile");
+        }
+        return searches.get().solve(tiles);
+    }
+
+    // Returns the valid words of a standard board, with the tile QU for every Q.
+    public List<String> getAllValidWords(BoggleBoard board) {
+        if (board == null) throw new IllegalArgumentException();
+        return getAllValidWords(tiles(board));
+    }
+
+    // the tiles of a standard board, QU for Q
+    public static String[][] tiles(BoggleBoard board) {
+        String[][] tiles = new String[board.rows()][board.cols()];
+        for (int i = 0; i < board.rows(); i++)
+            for (int j = 0; j < board.cols(); j++) {
+                char c = board.getLetter(i, j);
+                tiles[i][j] = c == 'Q' ? "QU" : String.valueOf(c);
+            }
+        return tiles;
+    }
+
+    // Returns the score of the given word if it is in the dictionary, zero otherwise.
+    public int scoreOf(String word) {
+        if (word == null) throw new IllegalArgumentException();
+        int x = walk(ROOT, word.toCharArray());
+        return x < 0 ? 0 : score[x];
+    }
+
+    // the board being solved, and the explicit stack of the depth-first search
+    private final class Search {
+        private int rows = -1, cols = -1;
+        private int[] firstNeighbor;
+        private int[] neighbor;
+        private char[][] tile;
+        private long[] visited;
+
+        // stack entry k is the k-th cell of the path
+        private int[] cellAt, nodeAt, nextAt, lengthAt;
+        private char[] path;
+
+        private int[] found = new int[score.length];
+        private int generation;
+        private List<String> words;
+
+        List<String> solve(String[][] tiles) {
+            if (tiles.length != rows || tiles[0].length != cols) shape(tiles.length, tiles[0].length);
+            int cells = rows * cols;
+            int longestTile = 1;
+            for (int v = 0; v < cells; v++) {
+                tile[v] = tiles[v / cols][v % cols].toCharArray();
+                longestTile = Math.max(longestTile, tile[v].length);
+            }
+            // a path spells at most maxLength chars before it leaves the trie
+            int depth = Math.min(cells, maxLength) + 1;
+            if (cellAt.length < depth) {
+                cellAt = new int[depth];
+                nodeAt = new int[depth];
+                nextAt = new int[depth];
+                lengthAt = new int[depth];
+            }
+            if (path.length < maxLength + longestTile) path = new char[maxLength + longestTile];
+            if (++generation == 0) {
+                Arrays.fill(found, 0);
+                generation = 1;
+            }
+            words = new ArrayList<String>();
+            for (int v = 0; v < cells; v++)
+                search(v);
+            List<String> result = words;
+            words = null;
+            Collections.sort(result);
+            return result;
+        }
+
+        // neighbor tables and visited set for boards of the given shape
+        private void shape(int m, int n) {
+            rows = m;
+            cols = n;
+            int cells = m * n;
+            tile = new char[cells][];
+            visited = new long[(cells + 63) >>> 6];
+            BoggleGrid grid = new BoggleGrid(m, n);
+            firstNeighbor = grid.firstNeighbors();
+            neighbor = grid.neighbors();
+            cellAt = new int[0];
+            path = new char[0];
+        }
+
+        // all paths that start at cell start
+        private void search(int start) {
+            if (!push(0, ROOT, 0, start)) return;
+            int d = 0;
+            while (d >= 0) {
+                int v = cellAt[d];
+                if (nextAt[d] == firstNeighbor[v+1]) {
+                    visited[v >>> 6] &= ~(1L << v);
+                    d--;
+                    continue;
+                }
+                int w = neighbor[nextAt[d]++];
+                if ((visited[w >>> 6] & (1L << w)) == 0 && push(d + 1, nodeAt[d], lengthAt[d], w)) d++;
+            }
+        }
+
+        // puts cell v at stack entry d if the path of length len at trie node
+        // x can be extended by its tile; returns false if it cannot
+        private boolean push(int d, int x, int len, int v) {
+            char[] t = tile[v];
+            int y = walk(x, t);
+            if (y < 0) return false;
+            System.arraycopy(t, 0, path, len, t.length);
+            len += t.length;
+            cellAt[d] = v;
+            nodeAt[d] = y;
+            nextAt[d] = firstNeighbor[v];
+            lengthAt[d] = len;
+            visited[v >>> 6] |= 1L << v;
+            if (score[y] > 0 && found[y] != generation) {
+                found[y] = generation;
+                words.add(new String(path, 0, len));
+            }
+            return true;
+        }
+    }
+
+    public static void main(String[] args) {
+        In in = new In(args[0]);
+        GeneralBoggleSolver solver = new GeneralBoggleSolver(in.readAllStrings());
+        BoggleBoard board = new BoggleBoard(args[1]);
+        int score = 0;
+        for (String word : solver.getAllValidWords(board)) {
+            StdOut.println(word);
+            score += solver.scoreOf(word);
+        }
+        StdOut.println("Score = " + score);
+    }
+}
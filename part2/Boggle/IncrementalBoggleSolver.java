@@ -0,0 +1,340 @@
+/******************************************************************************
+ *  Compilation:  javac IncrementalBoggleSolver.java
+ *  Execution:    java IncrementalBoggleSolver dictionary.txt board.txt [changes]
+ *  Dependencies: BoggleDictionary.java BoggleGrid.java BoggleBoard.java
+ *                BoggleSolver.java In.java StdOut.java StdRandom.java Stopwatch.java
+ *
+ *  Boggle solver that keeps the words of one board and updates them when a
+ *  cell changes, for optimizers that change a board one cell at a time.
+ *
+ *  Every found word keeps one path that spells it, as a mask of its cells,
+ *  and every cell keeps the words whose path runs through it. When a cell
+ *  changes, applyChange()
+ *
+ *   - looks for another path, avoiding the cell, for each word whose path
+ *     ran through it, and drops the words that have none
+ *   - searches only the paths through the changed cell for new words: a
+ *     path that has not reached the cell yet is cut as soon as the cell is
+ *     farther away than the longest word below its trie node
+ *
+ *  and returns the change of the score. Boards have at most 64 cells.
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class IncrementalBoggleSolver {
+
+    private static final int R = BoggleDictionary.R;
+    private static final int Q = 'Q' - 'A';
+    private static final int U = 'U' - 'A';
+
+    private final BoggleDictionary dict;
+
+    private BoggleGrid grid;
+    private int[] letter;
+    private int[] first;
+    private int[] neighbor;
+    private int[] row, col;             // row and column of each cell
+    private final int[] count = new int[R];
+    private int once, twice;            // letter masks of the board, see BoggleDictionary.fits()
+
+    // found words, by slot
+    private final int[] slotOf;         // slot of the word at each trie node, -1 if not found
+    private int[] wordNode = new int[0];
+    private long[] wordMask = new long[0];
+    private String[] wordText = new String[0];
+    private int slots;
+    private int[] freeSlots = new int[0];
+    private int free;
+    private int words;
+    private int score;
+
+    // cellWords[v][0 .. cellCount[v]) are slots whose path may run through cell v;
+    // entries go stale when a word is dropped or takes another path
+    private int[][] cellWords;
+    private int[] cellCount;
+    private int[] seen = new int[0];    // stamps for deduplicating cellWords
+    private int stamp;
+
+    private char[] path = new char[0];
+    private int node;                   // trie node reached by the last successful extend()
+    private int target;                 // the changed cell
+    private long targetBit;             // its bit, or every cell for a full search
+
+    // an empty solver for boards of the given dictionary; load() a board before changing it
+    public IncrementalBoggleSolver(BoggleDictionary dictionary) {
+        if (dictionary == null) throw new IllegalArgumentException();
+        dict = dictionary;
+        slotOf = new int[dict.size()];
+        Arrays.fill(slotOf, -1);
+    }
+
+    // solves board from scratch and returns its score
+    public int load(BoggleBoard board) {
+        if (board == null) throw new IllegalArgumentException();
+        if (board.rows() * board.cols() > BoggleGrid.MAX_MASK_CELLS)
+            throw new IllegalArgumentException("boards have at most " + BoggleGrid.MAX_MASK_CELLS + " cells");
+        for (int s = 0; s < slots; s++)
+            if (wordNode[s] >= 0) slotOf[wordNode[s]] = -1;
+        slots = 0;
+        free = 0;
+        words = 0;
+        score = 0;
+
+        grid = new BoggleGrid(board);
+        letter = grid.letters();
+        first = grid.firstNeighbors();
+        neighbor = grid.neighbors();
+        int cells = grid.cells();
+        row = new int[cells];
+        col = new int[cells];
+        for (int v = 0; v < cells; v++) {
+            row[v] = v / grid.cols();
+            col[v] = v % grid.cols();
+        }
+        Arrays.fill(count, 0);
+        for (int v = 0; v < cells; v++)
+            count[letter[v]]++;
+        letterMasks();
+        cellWords = new int[cells][4];
+        cellCount = new int[cells];
+        if (path.length < 2 * cells) path = new char[2 * cells];
+
+        targetBit = -1L;
+        for (int v = 0; v < cells; v++)
+            step(BoggleDictionary.ROOT, v, 0, 0L);
+        return score;
+    }
+
+    // changes the letter of cell (i, j) and returns the change of the score
+    public int applyChange(int i, int j, char c) {
+        if (grid == null) throw new IllegalStateException("no board loaded");
+        if (i < 0 || i >= grid.rows() || j < 0 || j >= grid.cols()) throw new IllegalArgumentException();
+        if (c < 'A' || c > 'Z') throw new IllegalArgumentException("invalid character: " + c);
+        int v = i * grid.cols() + j;
+        if (letter[v] == c - 'A') return 0;
+        int before = score;
+
+        count[letter[v]]--;
+        count[c - 'A']++;
+        grid.setLetter(v, c - 'A');
+        letterMasks();
+
+        // words whose path ran through v: find another one or drop them
+        target = v;
+        targetBit = 1L << v;
+        int n = cellCount[v];
+        int[] through = Arrays.copyOf(cellWords[v], n);
+        cellCount[v] = 0;
+        for (int k = 0; k < n; k++) {
+            int s = through[k];
+            if (wordNode[s] < 0 || (wordMask[s] & targetBit) == 0) continue;
+            long mask = find(wordText[s]);
+            if (mask != 0) {
+                wordMask[s] = mask;
+                index(s, mask);
+            }
+            else remove(s);
+        }
+
+        // words with a path through the new letter
+        for (int u = 0; u < letter.length; u++)
+            step(BoggleDictionary.ROOT, u, 0, 0L);
+        return score - before;
+    }
+
+    // score of the current board
+    public int score() {
+        return score;
+    }
+
+    // the letter in row i and column j of the current board
+    public char getLetter(int i, int j) {
+        if (grid == null) throw new IllegalStateException("no board loaded");
+        return (char) ('A' + letter[i * grid.cols() + j]);
+    }
+
+    // the valid words of the current board, sorted
+    public List<String> getAllValidWords() {
+        List<String> result = new ArrayList<String>(words);
+        for (int s = 0; s < slots; s++)
+            if (wordNode[s] >= 0) result.add(wordText[s]);
+        Collections.sort(result);
+        return result;
+    }
+
+    private void letterMasks() {
+        once = 0;
+        twice = 0;
+        for (int c = 0; c < R; c++) {
+            int n = count[c] + (c == U ? count[Q] : 0);
+            if (n >= 1) once  |= 1 << c;
+            if (n >= 2) twice |= 1 << c;
+        }
+    }
+
+    // Chebyshev distance between cells v and w, the fewest steps from one to the other
+    private int distance(int v, int w) {
+        return Math.max(Math.abs(row[v] - row[w]), Math.abs(col[v] - col[w]));
+    }
+
+    // as in BoggleSolver: the child of x for the letter of cell v, appended to the path at len
+    private int extend(int x, int v, int len) {
+        int ch = letter[v];
+        int y = dict.child(x, ch);
+        if (y < 0) return -1;
+        path[len++] = (char) ('A' + ch);
+        if (ch == Q) {
+            y = dict.child(y, U);
+            if (y < 0) return -1;
+            path[len++] = 'U';
+        }
+        if (!dict.fits(y, once, twice)) return -1;
+        node = y;
+        return len;
+    }
+
+    // steps from trie node x onto cell v, recording the words of paths that
+    // contain a cell of targetBit; mask holds the visited cells
+    private void step(int x, int v, int len, long mask) {
+        len = extend(x, v, len);
+        if (len < 0) return;
+        x = node;
+        mask |= 1L << v;
+        if ((mask & targetBit) != 0) {
+            if (dict.score(x) > 0 && slotOf[x] < 0) add(x, len, mask);
+        }
+        else if (distance(v, target) > dict.height(x)) return;
+        for (int k = first[v]; k < first[v+1]; k++) {
+            int w = neighbor[k];
+            if ((mask & (1L << w)) == 0) step(x, w, len, mask);
+        }
+    }
+
+    // a path that spells word and avoids the cells of targetBit, as a mask, or 0 if there is none
+    private long find(String word) {
+        for (int v = 0; v < letter.length; v++) {
+            if ((targetBit & (1L << v)) != 0) continue;
+            long mask = find(word, 0, v, targetBit);
+            if (mask != 0) return mask & ~targetBit;
+        }
+        return 0;
+    }
+
+    private long find(String word, int i, int v, long mask) {
+        int ch = letter[v];
+        if (word.charAt(i++) != 'A' + ch) return 0;
+        if (ch == Q) {
+            if (i == word.length() || word.charAt(i++) != 'U') return 0;
+        }
+        mask |= 1L << v;
+        if (i == word.length()) return mask;
+        for (int k = first[v]; k < first[v+1]; k++) {
+            int w = neighbor[k];
+            if ((mask & (1L << w)) != 0) continue;
+            long found = find(word, i, w, mask);
+            if (found != 0) return found;
+        }
+        return 0;
+    }
+
+    private void add(int x, int len, long mask) {
+        int s;
+        if (free > 0) s = freeSlots[--free];
+        else {
+            if (slots == wordNode.length) {
+                int cap = Math.max(16, 2 * slots);
+                wordNode = Arrays.copyOf(wordNode, cap);
+                wordMask = Arrays.copyOf(wordMask, cap);
+                wordText = Arrays.copyOf(wordText, cap);
+                freeSlots = Arrays.copyOf(freeSlots, cap);
+                seen = Arrays.copyOf(seen, cap);
+            }
+            s = slots++;
+        }
+        wordNode[s] = x;
+        wordMask[s] = mask;
+        wordText[s] = new String(path, 0, len);
+        slotOf[x] = s;
+        index(s, mask);
+        words++;
+        score += dict.score(x);
+    }
+
+    private void remove(int s) {
+        score -= dict.score(wordNode[s]);
+        words--;
+        slotOf[wordNode[s]] = -1;
+        wordNode[s] = -1;
+        wordText[s] = null;
+        freeSlots[free++] = s;
+    }
+
+    // adds slot s to the lists of the cells of mask
+    private void index(int s, long mask) {
+        for (long m = mask; m != 0; m &= m - 1) {
+            int v = Long.numberOfTrailingZeros(m);
+            if (cellCount[v] == cellWords[v].length) compact(v);
+            cellWords[v][cellCount[v]++] = s;
+        }
+    }
+
+    // drops the stale and repeated entries of the list of cell v, and grows it if still full
+    private void compact(int v) {
+        if (++stamp == 0) {
+            Arrays.fill(seen, 0);
+            stamp = 1;
+        }
+        int[] list = cellWords[v];
+        int n = 0;
+        for (int k = 0; k < cellCount[v]; k++) {
+            int s = list[k];
+            if (wordNode[s] < 0 || (wordMask[s] & (1L << v)) == 0 || seen[s] == stamp) continue;
+            seen[s] = stamp;
+            list[n++] = s;
+        }
+        cellCount[v] = n;
+        if (2 * n > list.length) cellWords[v] = Arrays.copyOf(list, 2 * list.length);
+    }
+
+    // loads the board, then applies random changes and checks every score
+    // against a full solve; prints the time of both
+    public static void main(String[] args) {
+        In in = new In(args[0]);
+        BoggleDictionary dictionary = new BoggleDictionary(in.readAllStrings());
+        BoggleBoard board = new BoggleBoard(args[1]);
+        int changes = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        IncrementalBoggleSolver incremental = new IncrementalBoggleSolver(dictionary);
+        BoggleSolver solver = new BoggleSolver(dictionary);
+        StdOut.println("Score = " + incremental.load(board));
+
+        char[][] a = new char[board.rows()][board.cols()];
+        for (int i = 0; i < board.rows(); i++)
+            for (int j = 0; j < board.cols(); j++)
+                a[i][j] = board.getLetter(i, j);
+        double incrementalTime = 0, fullTime = 0;
+        for (int t = 0; t < changes; t++) {
+            int i = StdRandom.uniform(board.rows()), j = StdRandom.uniform(board.cols());
+            a[i][j] = (char) ('A' + StdRandom.uniform(R));
+            Stopwatch sw = new Stopwatch();
+            incremental.applyChange(i, j, a[i][j]);
+            incrementalTime += sw.elapsedTime();
+            sw = new Stopwatch();
+            int full = 0;
+            for (String word : solver.getAllValidWords(new BoggleBoard(a)))
+                full += solver.scoreOf(word);
+            fullTime += sw.elapsedTime();
+            if (full != incremental.score())
+                throw new IllegalStateException("score " + incremental.score() + " after change " + t + ", expected " + full);
+        }
+        StdOut.printf("%d changes: incremental %.3f s, full %.3f s%n", changes, incrementalTime, fullTime);
+    }
+}
@@ -0,0 +1,165 @@
+/******************************************************************************
+ *  Compilation:  javac BlockBurrowsWheeler.java
+ *  Execution:    java BlockBurrowsWheeler - [blockSize] < input.txt   (encode)
+ *                java BlockBurrowsWheeler + [blockSize] < input.bwt   (decode)
+ *  Dependencies: BurrowsWheeler.java CircularSuffixArray.java
+ *
+ *  Blocked Burrows-Wheeler transform, in the style of bzip2. The input is cut
+ *  into blocks of at most blockSize bytes (900 KB by default) and every block
+ *  is transformed independently on a fork-join pool. Blocks are written in
+ *  input order, each one as
+ *
+ *      int length      number of bytes in the block (> 0)
+ *      int id          row of the original block among the sorted rotations
+ *      byte[length]    last column of the sorted rotations
+ *
+ *  and the stream simply ends after the last block. The decoder is given the
+ *  block size of the encoder and rejects longer blocks, so a corrupt length
+ *  cannot make it allocate more than that. Decoding inverts the
+ *  blocks in parallel in the same way. At most 2 * parallelism blocks are in
+ *  flight at any time, so memory does not grow with the input size. The
+ *  transforms of one encode() share a suffix array buffer per running
+ *  thread, which are dropped when it returns.
+ *
+ ******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class BlockBurrowsWheeler {
+
+    public static final int DEFAULT_BLOCK_SIZE = 900 * 1024;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static class Block {
+        private final byte[] data;
+        private final int length;
+        private final int id;
+
+        Block(byte[] data, int length, int id) {
+            this.data = data;
+            this.length = length;
+            this.id = id;
+        }
+    }
+
+    // apply blocked Burrows-Wheeler encoding with the given block size, using the threads of pool
+    public static void encode(InputStream in, OutputStream out, int blockSize, ForkJoinPool pool) {
+        if (in == null || out == null || pool == null) throw new IllegalArgumentException();
+        if (blockSize <= 0) throw new IllegalArgumentException("block size must be positive");
+        try {
+            DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+            Deque<ForkJoinTask<Block>> window = new ArrayDeque<ForkJoinTask<Block>>();
+            int limit = 2 * pool.getParallelism();
+            // suffix array buffers of the running transforms, at most one per
+            // thread; they are dropped when encode() returns
+            Queue<int[]> buffers = new ConcurrentLinkedQueue<int[]>();
+            while (true) {
+                byte[] a = new byte[blockSize];
+                int n = readFully(in, a, 0, blockSize);
+                if (n == 0) break;
+                window.addLast(pool.submit(() -> {
+                    int[] buffer = buffers.poll();
+                    if (buffer == null || buffer.length < CircularSuffixArray.bufferLength(n))
+                        buffer = new int[CircularSuffixArray.bufferLength(n)];
+                    byte[] t = new byte[n];
+                    int id = BurrowsWheeler.transform(a, 0, n, t, new int[1], buffer);
+                    buffers.offer(buffer);
+                    return new Block(t, n, id);
+                }));
+                if (window.size() >= limit) write(dout, window.removeFirst().join());
+            }
+            while (!window.isEmpty())
+                write(dout, window.removeFirst().join());
+            dout.flush();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // apply blocked Burrows-Wheeler decoding of blocks of at most blockSize bytes, using the threads of pool
+    public static void decode(InputStream in, OutputStream out, int blockSize, ForkJoinPool pool) {
+        if (in == null || out == null || pool == null) throw new IllegalArgumentException();
+        if (blockSize <= 0) throw new IllegalArgumentException("block size must be positive");
+        try {
+            DataInputStream din = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+            OutputStream bout = new BufferedOutputStream(out, BUFFER_SIZE);
+            Deque<ForkJoinTask<Block>> window = new ArrayDeque<ForkJoinTask<Block>>();
+            int limit = 2 * pool.getParallelism();
+            while (true) {
+                Block b = read(din, blockSize);
+                if (b == null) break;
+                window.addLast(pool.submit(() -> {
+                    byte[] a = new byte[b.length];
+                    BurrowsWheeler.inverseTransform(b.data, 0, b.length, b.id, a);
+                    return new Block(a, b.length, 0);
+                }));
+                if (window.size() >= limit) {
+                    Block d = window.removeFirst().join();
+                    bout.write(d.data, 0, d.length);
+                }
+            }
+            while (!window.isEmpty()) {
+                Block d = window.removeFirst().join();
+                bout.write(d.data, 0, d.length);
+            }
+            bout.flush();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(DataOutputStream out, Block b) throws IOException {
+        out.writeInt(b.length);
+        out.writeInt(b.id);
+        out.write(b.data, 0, b.length);
+    }
+
+    // next block of the stream, of at most maxLength bytes, or null at the end of the stream
+    private static Block read(DataInputStream in, int maxLength) throws IOException {
+        int first = in.read();
+        if (first < 0) return null;
+        int n = (first << 24) | (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+        int id = in.readInt();
+        if (n <= 0 || n > maxLength || id < 0 || id >= n) throw new IOException("corrupt block header");
+        byte[] a = new byte[n];
+        in.readFully(a);
+        return new Block(a, n, id);
+    }
+
+    // reads up to len bytes, stopping short only at the end of the stream
+    static int readFully(InputStream in, byte[] a, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int k = in.read(a, off + n, len - n);
+            if (k < 0) break;
+            n += k;
+        }
+        return n;
+    }
+
+    // if args[0] is '-', apply blocked Burrows-Wheeler encoding (args[1] is an optional block size)
+    // if args[0] is '+', apply blocked Burrows-Wheeler decoding (args[1] is the block size of the encoder)
+    public static void main(String[] args) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_BLOCK_SIZE;
+        if      (args[0].equals("-")) encode(System.in, System.out, blockSize, pool);
+        else if (args[0].equals("+")) decode(System.in, System.out, blockSize, pool);
+        else throw new IllegalArgumentException();
+    }
+}
@@ -1,58 +1,219 @@
 import edu.princeton.cs.algs4.BinaryStdIn;
 import edu.princeton.cs.algs4.BinaryStdOut;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 
 public class BurrowsWheeler {
+
+    private static final int PACKED_INT_LIMIT = 1 << 24;  // blocks whose row numbers fit in 24 bits
+
     // apply Burrows-Wheeler encoding, reading from standard input and writing to standard output
     public static void encode() {
-        String s = BinaryStdIn.readString();
-        CircularSuffixArray csa = new CircularSuffixArray(s);
-        char[] out = new char[s.length()];
+        byte[] a = readBytes();
+        int n = a.length;
+        byte[] out = new byte[n];
+        int id = transform(a, 0, n, out);
+        BinaryStdOut.write(id);
+        for (int i = 0; i < n; i++)
+            BinaryStdOut.write((char) (out[i] & 0xff));
+        BinaryStdOut.flush();
+    }
+
+    // apply Burrows-Wheeler decoding, reading from standard input and writing to standard output
+    public static void decode() {
+        int id = BinaryStdIn.readInt();
+        byte[] t = readBytes();
+        int n = t.length;
+        byte[] out = new byte[n];
+        inverseTransform(t, 0, n, id, out);
+        for (int i = 0; i < n; i++)
+            BinaryStdOut.write((char) (out[i] & 0xff));
+        BinaryStdOut.flush();
+    }
+
+    // rest of standard input, one byte per char
+    private static byte[] readBytes() {
+        byte[] a = new byte[1 << 16];
+        int n = 0;
+        while (!BinaryStdIn.isEmpty()) {
+            if (n == a.length) a = Arrays.copyOf(a, 2 * n);
+            a[n++] = (byte) BinaryStdIn.readChar();
+        }
+        return Arrays.copyOf(a, n);
+    }
+
+    // apply Burrows-Wheeler encoding from file in to file out, through memory-mapped buffers;
+    // the file is one block, so at most CircularSuffixArray.MAX_LENGTH (about 512 MB) bytes
+    public static void encode(Path in, Path out) {
+        encode(in, out, null);
+    }
+
+    // as above, and if index is not null also write the FMIndex sidecar of out to index
+    public static void encode(Path in, Path out, Path index) {
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(out, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (src.size() > CircularSuffixArray.MAX_LENGTH)
+                throw new IllegalArgumentException("input longer than " + CircularSuffixArray.MAX_LENGTH + " bytes, too large for one block");
+            int n = (int) src.size();
+            byte[] a = new byte[n];
+            src.map(FileChannel.MapMode.READ_ONLY, 0, n).get(a);
+            byte[] t = new byte[n];
+            CircularSuffixArray csa = new CircularSuffixArray(a, 0, n);
+            int id = transform(csa, a, 0, n, t, new int[1]);
+            MappedByteBuffer buf = dst.map(FileChannel.MapMode.READ_WRITE, 0, 4L + n);
+            buf.putInt(id).put(t);
+            if (index != null) new FMIndex(t, id, csa, FMIndex.DEFAULT_SAMPLE_RATE).write(index);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // apply Burrows-Wheeler decoding from file in to file out, through memory-mapped buffers
+    public static void decode(Path in, Path out) {
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(out, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (src.size() < 4) throw new IllegalArgumentException("input too short");
+            if (src.size() > Integer.MAX_VALUE) throw new IllegalArgumentException("input too large for one block");
+            int n = (int) src.size() - 4;
+            MappedByteBuffer buf = src.map(FileChannel.MapMode.READ_ONLY, 0, n + 4L);
+            int id = buf.getInt();
+            byte[] t = new byte[n];
+            buf.get(t);
+            byte[] a = new byte[n];
+            inverseTransform(t, 0, n, id, a);
+            dst.map(FileChannel.MapMode.READ_WRITE, 0, n).put(a);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Burrows-Wheeler transform of a[off..off+len) into out[0..len), returns id,
+    // the row of the sorted rotations that holds the original block
+    public static int transform(byte[] a, int off, int len, byte[] out) {
+        return transform(a, off, len, out, new int[1]);
+    }
+
+    // as above, and also fills rows[] with the start rows of the streams of
+    // inverseTransform(t, off, len, rows, out): rows[k] is the row of the
+    // rotation that starts at position k * ceil(len / rows.length)
+    public static int transform(byte[] a, int off, int len, byte[] out, int[] rows) {
+        return transform(a, off, len, out, rows, null);
+    }
+
+    // as above, building the suffix array in buffer (see CircularSuffixArray),
+    // so callers transforming many blocks can reuse one buffer
+    public static int transform(byte[] a, int off, int len, byte[] out, int[] rows, int[] buffer) {
+        if (rows == null || rows.length == 0) throw new IllegalArgumentException();
+        CircularSuffixArray csa = new CircularSuffixArray(a, off, len, buffer, CircularSuffixArray.Engine.AUTO);
+        return transform(csa, a, off, len, out, rows);
+    }
+
+    private static int transform(CircularSuffixArray csa, byte[] a, int off, int len, byte[] out, int[] rows) {
+        int step = streamLength(len, rows.length);
         int id = 0;
-        for (int i = 0; i < s.length(); i++) {
+        for (int i = 0; i < len; i++) {
             int k = csa.index(i);
+            if (k % step == 0) rows[k / step] = i;
             if (k == 0) {
                 id = i;
-                out[i] = s.charAt(s.length() - 1);
+                out[i] = a[off + len - 1];
             } else {
-                out[i] = s.charAt(k-1);
+                out[i] = a[off + k - 1];
             }
         }
-        BinaryStdOut.write(id);
-        for (int i = 0; i < s.length(); i++) {
-            BinaryStdOut.write(out[i]);
+        return id;
+    }
+
+    // inverse of transform(): decodes t[off..off+len) with the given id into out[0..len)
+    public static void inverseTransform(byte[] t, int off, int len, int id, byte[] out) {
+        inverseTransform(t, off, len, new int[] { id }, out);
+    }
+
+    // inverse of transform() from several start rows at once, as filled in by
+    // transform(a, off, len, out, rows); stream k decodes out[k*step..(k+1)*step)
+    // with step = ceil(len / rows.length). The streams are interleaved, so the
+    // random accesses of independent streams overlap instead of queuing.
+    public static void inverseTransform(byte[] t, int off, int len, int[] rows, byte[] out) {
+        if (rows == null || rows.length == 0) throw new IllegalArgumentException();
+        if (len == 0) return;
+        int step = streamLength(len, rows.length);
+        int streams = (len + step - 1) / step;
+        int[] id = Arrays.copyOf(rows, streams);
+        for (int k = 0; k < streams; k++)
+            if (id[k] < 0 || id[k] >= len) throw new IllegalArgumentException();
+
+        // first row of every symbol among the sorted rotations
+        int[] counts = new int[256 + 1];
+        for (int i = 0; i < len; i++)
+            counts[(t[off + i] & 0xff) + 1]++;
+        for (int i = 0; i < 256; i++)
+            counts[i+1] += counts[i];
+
+        // entry j packs next[j] with the symbol that row j starts with, so each
+        // decoded symbol costs one random access instead of two
+        int last = len - (streams - 1) * step;
+        if (len <= PACKED_INT_LIMIT) {
+            int[] lf = new int[len];
+            for (int i = 0; i < len; i++) {
+                int c = t[off + i] & 0xff;
+                lf[counts[c]++] = (c << 24) | i;
+            }
+            for (int i = 0; i < step; i++) {
+                int active = i < last ? streams : streams - 1;
+                for (int k = 0, o = i; k < active; k++, o += step) {
+                    int e = lf[id[k]];
+                    out[o] = (byte) (e >>> 24);
+                    id[k] = e & 0xffffff;
+                }
+            }
+        }
+        else {
+            long[] lf = new long[len];
+            for (int i = 0; i < len; i++) {
+                int c = t[off + i] & 0xff;
+                lf[counts[c]++] = ((long) c << 32) | i;
+            }
+            for (int i = 0; i < step; i++) {
+                int active = i < last ? streams : streams - 1;
+                for (int k = 0, o = i; k < active; k++, o += step) {
+                    long e = lf[id[k]];
+                    out[o] = (byte) (e >>> 32);
+                    id[k] = (int) e;
+                }
+            }
         }
-        BinaryStdOut.flush();
     }
 
-    // apply Burrows-Wheeler decoding, reading from standard input and writing to standard output
-    public static void decode() {
-        int id = BinaryStdIn.readInt();
-        String s = BinaryStdIn.readString();
-        int n = s.length();
-        char[] coll = s.toCharArray();
-        int[] next = new int[n];
-        int[] counts = new int[256];
-        Arrays.fill(counts, 0);
-        for (int i = 0; i < n; i++)
-            counts[s.charAt(i)]++;
-        for (int i = 1; i < 256; i++)
-            counts[i] += counts[i-1];
-        for (int i = n-1; i >= 0; i--) {
-            char c = s.charAt(i);
-            int j = --counts[c];
-            next[j] = i;
-            coll[j] = c;
-        }
-        for (int i = 0; i < n; id = next[id], i++)
-            BinaryStdOut.write(coll[id]);
-        BinaryStdOut.flush();
+    // number of positions decoded by each stream
+    private static int streamLength(int len, int streams) {
+        return Math.max(1, (int) (((long) len + streams - 1) / streams));
     }
 
     // if args[0] is '-', apply Burrows-Wheeler encoding
     // if args[0] is '+', apply Burrows-Wheeler decoding
+    // with args[1] and args[2], read from file args[1] and write to file args[2] through mapped buffers
+    // with args[3] as well, encoding also writes the FMIndex sidecar to file args[3]
     public static void main(String[] args) {
-        if      (args[0].equals("-")) encode();
+        if (args.length == 4 && args[0].equals("-")) {
+            encode(Paths.get(args[1]), Paths.get(args[2]), Paths.get(args[3]));
+        }
+        else if (args.length == 3) {
+            Path in = Paths.get(args[1]), out = Paths.get(args[2]);
+            if      (args[0].equals("-")) encode(in, out);
+            else if (args[0].equals("+")) decode(in, out);
+            else throw new IllegalArgumentException();
+        }
+        else if (args[0].equals("-")) encode();
         else if (args[0].equals("+")) decode();
         else throw new IllegalArgumentException();
     }
@@ -1,51 +1,268 @@
 import edu.princeton.cs.algs4.StdOut;
+import java.util.Arrays;
 
 public class CircularSuffixArray {
 
+    // suffix sorting engines
+    //   QUICK3WAY: 3-way radix quicksort, fast on typical text but quadratic
+    //              when the input has long repeats (runs, duplicated blocks)
+    //   DOUBLING:  prefix doubling on cyclic ranks, n log n in the worst case
+    //   AUTO:      DOUBLING for input of low entropy or with many repeats;
+    //              otherwise QUICK3WAY until it has compared QUICK_BUDGET
+    //              chars per input char, then DOUBLING from scratch
+    public enum Engine { AUTO, QUICK3WAY, DOUBLING }
+
+    private static final int R = 256;
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;  // largest array most VMs allocate
+
+    // longest input the DOUBLING and AUTO engines take, as their working
+    // space of bufferLength(n) ints must fit in one array (about 512 MB)
+    public static final int MAX_LENGTH = MAX_ARRAY_LENGTH / 4;
     private static final int CUTOFF = 5;
-    private final char[] text;
+    private static final int AUTO_MIN_LENGTH  = 1 << 12;  // below this quicksort always wins
+    private static final double MIN_ENTROPY   = 2.0;      // bits per char
+    private static final int WINDOW           = 32;       // length of sampled repeats
+    private static final double MAX_REPEATS   = 0.2;      // fraction of repeated windows, beyond hash collisions
+    private static final int QUICK_BUDGET     = 64;       // chars compared per input char before AUTO gives up on QUICK3WAY
+
+    private final byte[] text;
+    private final int offset;
     private final int[] index;
     private final int n;
+    private long budget;    // chars the quicksort may still compare; it stops once this is negative
 
     public CircularSuffixArray(String s) {
+        this(s, Engine.AUTO);
+    }  // circular suffix array of s
+
+    // circular suffix array of s, built by the given engine; s must be extended ASCII
+    public CircularSuffixArray(String s, Engine engine) {
+        this(bytes(s), 0, s.length(), null, engine);
+    }
+
+    // circular suffix array of a
+    public CircularSuffixArray(byte[] a) {
+        this(a, 0, a == null ? 0 : a.length, null, Engine.AUTO);
+    }
+
+    // circular suffix array of a[off..off+len), which is not copied
+    public CircularSuffixArray(byte[] a, int off, int len) {
+        this(a, off, len, null, Engine.AUTO);
+    }
+
+    // circular suffix array of a[off..off+len), which is not copied, built by
+    // the given engine. If buffer is not null the suffix array is kept in
+    // buffer[0..len), and with at least bufferLength(len) entries the engines
+    // use the rest of it as working space and allocate nothing.
+    public CircularSuffixArray(byte[] a, int off, int len, int[] buffer, Engine engine) {
+        if (a == null || engine == null) throw new IllegalArgumentException();
+        if (off < 0 || len < 0 || off > a.length - len) throw new IllegalArgumentException();
+        if (buffer != null && buffer.length < len) throw new IllegalArgumentException("buffer too short");
+        if (len > MAX_LENGTH && engine != Engine.QUICK3WAY)
+            throw new IllegalArgumentException("input longer than " + MAX_LENGTH + " bytes");
+        n = len;
+        text = a;
+        offset = off;
+        index = buffer != null ? buffer : new int[n];
+        int[] work = buffer != null && n <= MAX_LENGTH && buffer.length >= bufferLength(n) ? buffer : null;
+        Engine chosen = engine == Engine.AUTO ? choose(text, offset, n, work) : engine;
+        if (chosen == Engine.QUICK3WAY) {
+            // long repeats make the quicksort slow, and they cannot all be
+            // seen in advance: AUTO lets it run on a budget instead
+            budget = engine == Engine.AUTO ? QUICK_BUDGET * (long) n : Long.MAX_VALUE;
+            for (int i = 0; i < n; i++)
+                index[i] = i;
+            sort(0, n-1, 0);
+            if (budget >= 0) return;
+        }
+        if (work == null) work = new int[bufferLength(n)];
+        doubling(work);
+    }
+
+    // number of buffer entries that lets the constructor run without allocating;
+    // n must be at most MAX_LENGTH
+    public static int bufferLength(int n) {
+        long length = 3L * n + Math.max(R, n);
+        if (n < 0 || length > MAX_ARRAY_LENGTH) throw new IllegalArgumentException("input longer than " + MAX_LENGTH + " bytes");
+        return (int) length;
+    }
+
+    private static byte[] bytes(String s) {
         if (s == null) throw new IllegalArgumentException();
-        n = s.length();
-        s = s + '\0';
-        text = s.toCharArray();
-        index = new int[n];
+        byte[] a = new byte[s.length()];
+        for (int i = 0; i < a.length; i++) {
+            char c = s.charAt(i);
+            if (c >= R) throw new IllegalArgumentException("not an extended ASCII char: " + (int) c);
+            a[i] = (byte) c;
+        }
+        return a;
+    }
+
+    // pick an engine from the order-0 entropy of the input and the fraction of
+    // WINDOW-length substrings that occur more than once; both are linear scans.
+    // The second is a cheap way out for very repetitive input only: the
+    // quicksort budget catches the rest.
+    // work, if not null, has bufferLength(n) entries and holds the bitmap
+    private static Engine choose(byte[] a, int off, int n, int[] work) {
+        if (n < AUTO_MIN_LENGTH) return Engine.QUICK3WAY;
+
+        int[] count = new int[R];
+        for (int i = off; i < off + n; i++)
+            count[a[i] & 0xff]++;
+        double entropy = 0;
+        for (int c = 0; c < R; c++) {
+            if (count[c] == 0) continue;
+            double p = (double) count[c] / n;
+            entropy -= p * Math.log(p);
+        }
+        entropy /= Math.log(2);
+        if (entropy < MIN_ENTROPY) return Engine.DOUBLING;
+
+        // rolling hash of every window, recorded in a bitmap of about 8n bits
+        int words = Integer.highestOneBit(Math.min(n, 1 << 27)) >>> 2;
+        int bits = words << 5;
+        int[] seen;
+        int first;
+        if (work != null) {
+            seen = work;
+            first = n;
+            Arrays.fill(seen, first, first + words, 0);
+        }
+        else {
+            seen = new int[words];
+            first = 0;
+        }
+        long pow = 1, h = 0;
+        final long base = 0x100000001b3L;
+        for (int i = 0; i < WINDOW; i++)
+            pow *= base;
+        int repeats = 0;
+        for (int i = 0; i < n; i++) {
+            h = h * base + a[off + i];
+            if (i >= WINDOW) h -= pow * a[off + i - WINDOW];
+            if (i < WINDOW - 1) continue;
+            int k = (int) ((h * 0x9e3779b97f4a7c15L) >>> 34) & (bits - 1);
+            int mask = 1 << k;
+            int w = first + (k >>> 5);
+            if ((seen[w] & mask) != 0) repeats++;
+            else seen[w] |= mask;
+        }
+        // distinct windows also collide in the bitmap: m hashes set about
+        // bits * (1 - exp(-m / bits)) bits, and the rest of them look repeated
+        double m = n - WINDOW + 1;
+        double collisions = m - bits * -Math.expm1(-m / bits);
+        if (repeats - collisions > MAX_REPEATS * n) return Engine.DOUBLING;
+        return Engine.QUICK3WAY;
+    }
+
+    // prefix doubling over cyclic shifts: after round h, rotations are sorted
+    // by their first 2^h chars and rank[] holds their equivalence classes.
+    // work[n..) holds rank[], tmp[] and the counts of the counting sorts
+    private void doubling(int[] work) {
+        if (n == 0) return;
+        int rank = n, tmp = 2 * n, count = 3 * n;
+
+        // sort by first char
+        Arrays.fill(work, count, count + R, 0);
         for (int i = 0; i < n; i++)
-            index[i] = i;
-        sort(0, n-1, 0);
-    }  // circular suffix array of s
+            work[count + charAt(i)]++;
+        for (int c = 1; c < R; c++)
+            work[count + c] += work[count + c - 1];
+        for (int i = n-1; i >= 0; i--)
+            index[--work[count + charAt(i)]] = i;
+        int classes = 1;
+        work[rank + index[0]] = 0;
+        for (int i = 1; i < n; i++) {
+            if (charAt(index[i]) != charAt(index[i-1])) classes++;
+            work[rank + index[i]] = classes - 1;
+        }
+
+        for (int h = 1; h < n && classes < n; h <<= 1) {
+            // rotations ordered by their second half, then counting sort by first half
+            for (int i = 0; i < n; i++) {
+                int k = index[i] - h;
+                work[tmp + i] = k < 0 ? k + n : k;
+            }
+            Arrays.fill(work, count, count + classes, 0);
+            for (int i = 0; i < n; i++)
+                work[count + work[rank + work[tmp + i]]]++;
+            for (int c = 1; c < classes; c++)
+                work[count + c] += work[count + c - 1];
+            for (int i = n-1; i >= 0; i--) {
+                int k = work[tmp + i];
+                index[--work[count + work[rank + k]]] = k;
+            }
 
-    private char circularText(int i, int d) {
-        int k = (i + d) % n;
-        if (k < 0 || k >= n) throw new IllegalArgumentException();
-        return text[k];
+            // new classes go into tmp, then swap
+            work[tmp + index[0]] = 0;
+            classes = 1;
+            for (int i = 1; i < n; i++) {
+                int cur = index[i], prev = index[i-1];
+                int curNext  = cur  + h >= n ? cur  + h - n : cur  + h;
+                int prevNext = prev + h >= n ? prev + h - n : prev + h;
+                if (work[rank + cur] != work[rank + prev] || work[rank + curNext] != work[rank + prevNext])
+                    classes++;
+                work[tmp + cur] = classes - 1;
+            }
+            int swap = rank;
+            rank = tmp;
+            tmp = swap;
+        }
     }
 
+    private int charAt(int i) {
+        return text[offset + i] & 0xff;
+    }
+
+    private int circularText(int i, int d) {
+        int k = i + d;
+        if (k >= n) k -= n;
+        return text[offset + k] & 0xff;
+    }
+
+    // sorts index[lo..hi] by the rotations from char d on. It recurses into the
+    // two smaller partitions and loops on the largest, so the stack holds at
+    // most log n frames; on repeats that is the middle partition, which would
+    // otherwise take a frame per char of the repeat
     private void sort(int lo, int hi, int d) {
-        if (d == n) return;
-        if (hi <= lo + CUTOFF) {
-            insertion(lo, hi, d);
-            return;
-        }
-        int lt = lo, gt = hi;
-        char v = circularText(index[lo], d);
-        int i = lo + 1;
-        while (i <= gt) {
-            int t = circularText(index[i], d);
-            if (t < v)      exch(lt++, i++);
-            else if (t > v) exch(i, gt--);
-            else i++;
+        while (d < n && budget >= 0) {
+            if (hi <= lo + CUTOFF) {
+                insertion(lo, hi, d);
+                return;
+            }
+            budget -= hi - lo + 1;
+            int lt = lo, gt = hi;
+            int v = circularText(index[lo], d);
+            int i = lo + 1;
+            while (i <= gt) {
+                int t = circularText(index[i], d);
+                if (t < v)      exch(lt++, i++);
+                else if (t > v) exch(i, gt--);
+                else i++;
+            }
+            int below = lt - lo, equal = gt - lt + 1, above = hi - gt;
+            if (equal >= below && equal >= above) {
+                sort(lo, lt - 1, d);
+                sort(gt + 1, hi, d);
+                lo = lt;
+                hi = gt;
+                d++;
+            }
+            else if (below >= above) {
+                sort(lt, gt, d + 1);
+                sort(gt + 1, hi, d);
+                hi = lt - 1;
+            }
+            else {
+                sort(lo, lt - 1, d);
+                sort(lt, gt, d + 1);
+                lo = gt + 1;
+            }
         }
-        sort(lo, lt - 1, d);
-        sort(lt, gt, d + 1);
-        sort(gt + 1, hi, d);
     }
 
     private void insertion(int lo, int hi, int d) {
-        for (int i = lo; i <= hi; i++)
+        for (int i = lo; i <= hi && budget >= 0; i++)
             for (int j = i; j > lo && less(index[j], index[j-1], d); j--)
                 exch(j, j - 1);
     }
@@ -53,9 +270,14 @@ public class CircularSuffixArray {
     private boolean less(int i, int j, int d) {
         if (i == j) return false;
         for (int k = d; k < n; k++) {
-            if (circularText(i, k) < circularText(j, k)) return true;
-            if (circularText(i, k) > circularText(j, k)) return false;
+            int a = circularText(i, k);
+            int b = circularText(j, k);
+            if (a != b) {
+                budget -= k - d + 1;
+                return a < b;
+            }
         }
+        budget -= n - d;
         return i > j;
     }
 
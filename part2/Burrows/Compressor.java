@@ -0,0 +1,275 @@
+/******************************************************************************
+ *  Compilation:  javac Compressor.java
+ *  Execution:    java Compressor [-1 .. -9] < input.txt > input.bwz   (compress)
+ *                java Compressor -d < input.bwz > input.txt          (decompress)
+ *  Dependencies: Pipeline.java BurrowsWheeler.java MoveToFront.java
+ *                ZeroRunLength.java HuffmanCoder.java CircularSuffixArray.java
+ *
+ *  Burrows-Wheeler compressor in one process: every block goes through the
+ *  Burrows-Wheeler transform, move-to-front, zero run-length coding and
+ *  Huffman coding as stages of a Pipeline, instead of three programs joined
+ *  by pipes. The level -1 .. -9 selects blocks of 100 KB .. 900 KB, as in
+ *  bzip2; -9 is the default.
+ *
+ *  A linear pre-pass over every block picks its mode before anything is
+ *  sorted: tiny blocks and blocks with order-0 entropy near 8 bits per byte
+ *  (compressed or random data) are stored, blocks whose order-1 entropy is not much below
+ *  their order-0 entropy skip the Burrows-Wheeler transform and are only
+ *  move-to-front and entropy coded, and the rest get the full transform.
+ *
+ *  File layout:
+ *
+ *      byte[3]   magic "BWZ"
+ *      byte      format version
+ *      byte      level (1 .. 9)
+ *      blocks    int length, int id, int crc, byte mode, byte[length]
+ *      int       -1, end of stream
+ *
+ *  where id is the Burrows-Wheeler id of the block, crc is the CRC-32 of
+ *  the uncompressed block, checked when the block is decompressed, and mode
+ *  is one of MODE_BWT, MODE_MTF and MODE_STORED. Version 1 streams have no
+ *  mode byte and every block is MODE_BWT.
+ *
+ ******************************************************************************/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+public class Compressor {
+
+    public static final int VERSION = 2;
+    public static final int DEFAULT_LEVEL = 9;
+
+    private static final byte[] MAGIC = { 'B', 'W', 'Z' };
+    private static final int LEVEL_BLOCK_SIZE = 100000;
+    private static final int END_OF_STREAM = -1;
+
+    // block modes
+    public static final int MODE_BWT    = 0;   // Burrows-Wheeler, move-to-front, zero runs, Huffman
+    public static final int MODE_MTF    = 1;   // move-to-front, zero runs, Huffman
+    public static final int MODE_STORED = 2;   // the block as is
+
+    private static final int MIN_CODED_LENGTH    = 256;   // shorter blocks do not pay for the Huffman header
+    private static final double STORED_ENTROPY   = 7.9;   // bits per byte above which coding cannot win
+    private static final double MIN_CONTEXT_GAIN = 0.5;   // bits per byte contexts must save to pay for the sort
+
+    // block size of the given level
+    public static int blockSize(int level) {
+        if (level < 1 || level > 9) throw new IllegalArgumentException("level must be between 1 and 9");
+        return level * LEVEL_BLOCK_SIZE;
+    }
+
+    private static final Pipeline.Stage CHECKSUM = c -> c.setCrc(crc(c.data(), c.length()));
+
+    private static final Pipeline.Stage VERIFY = c -> {
+        if (crc(c.data(), c.length()) != c.crc()) throw new IllegalArgumentException("block CRC mismatch");
+    };
+
+    // picks the mode of every block from its order-0 and order-1 entropy, in one pass;
+    // each call gets its own pair counts, as the stage runs on one thread
+    private static Pipeline.Stage select() {
+        int[] pairs = new int[256 * 256];
+        return c -> c.setMode(mode(c.data(), c.length(), pairs));
+    }
+
+    private static int mode(byte[] a, int len, int[] pairs) {
+        if (len < MIN_CODED_LENGTH) return MODE_STORED;
+        int[] count = new int[256];
+        Arrays.fill(pairs, 0);
+        int prev = 0;
+        for (int i = 0; i < len; i++) {
+            int c = a[i] & 0xff;
+            count[c]++;
+            pairs[prev << 8 | c]++;
+            prev = c;
+        }
+        double h0 = 0, h1 = 0;
+        int cells = 0, contexts = 0;
+        int[] context = new int[256];
+        for (int k = 0; k < pairs.length; k++)
+            context[k >>> 8] += pairs[k];
+        for (int c = 0; c < 256; c++) {
+            if (count[c] > 0) h0 -= count[c] * Math.log((double) count[c] / len);
+            if (context[c] > 0) contexts++;
+        }
+        for (int k = 0; k < pairs.length; k++) {
+            if (pairs[k] == 0) continue;
+            h1 -= pairs[k] * Math.log((double) pairs[k] / context[k >>> 8]);
+            cells++;
+        }
+        // Miller-Madow correction, as pair counts of short blocks underestimate h1
+        h1 += (cells - contexts) / 2.0;
+        h0 /= len * Math.log(2);
+        h1 /= len * Math.log(2);
+        if (h0 > STORED_ENTROPY) return MODE_STORED;
+        if (h0 - h1 < MIN_CONTEXT_GAIN) return MODE_MTF;
+        return MODE_BWT;
+    }
+
+    // stage that only applies to blocks of the given modes
+    private static Pipeline.Stage when(Pipeline.Stage stage, int... modes) {
+        return c -> {
+            for (int m : modes)
+                if (c.mode() == m) {
+                    stage.apply(c);
+                    return;
+                }
+        };
+    }
+
+    private static final Pipeline.Stage ZRLE_ENCODE = c -> {
+        byte[] out = c.spare(ZeroRunLength.maxEncodedLength(c.length()));
+        c.swap(ZeroRunLength.encode(c.data(), 0, c.length(), out));
+    };
+
+    private static final Pipeline.Stage HUFFMAN_ENCODE = c -> {
+        byte[] out = c.spare(HuffmanCoder.maxEncodedLength(c.length()));
+        c.swap(HuffmanCoder.encode(c.data(), 0, c.length(), out));
+    };
+
+    // zero run-length decoding of blocks that expand to at most blockSize bytes
+    private static Pipeline.Stage zrleDecode(int blockSize) {
+        return c -> {
+            int n = ZeroRunLength.decodedLength(c.data(), 0, c.length());
+            if (n > blockSize) throw new IllegalArgumentException("block larger than the block size");
+            c.swap(ZeroRunLength.decode(c.data(), 0, c.length(), c.spare(n)));
+        };
+    }
+
+    // Huffman decoding of blocks that expand to at most 2 * blockSize bytes
+    private static Pipeline.Stage huffmanDecode(int blockSize) {
+        return c -> {
+            if (c.length() < 4) throw new IllegalArgumentException("truncated block");
+            int n = HuffmanCoder.decodedLength(c.data(), 0);
+            if (n < 0 || n > ZeroRunLength.maxEncodedLength(blockSize))
+                throw new IllegalArgumentException("block larger than the block size");
+            c.swap(HuffmanCoder.decode(c.data(), 0, c.length(), c.spare(n)));
+        };
+    }
+
+    private static int crc(byte[] a, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(a, 0, len);
+        return (int) crc.getValue();
+    }
+
+    // compress in to out with blocks of the given level
+    public static void compress(ReadableByteChannel in, WritableByteChannel out, int level) {
+        if (in == null || out == null) throw new IllegalArgumentException();
+        int blockSize = blockSize(level);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 2);
+            header.put(MAGIC).put((byte) VERSION).put((byte) level).flip();
+            write(out, header);
+            new Pipeline(blockSize, Pipeline.DEFAULT_QUEUE_CAPACITY,
+                         CHECKSUM, select(),
+                         when(Pipeline.bwtEncode(), MODE_BWT),
+                         when(Pipeline.MTF_ENCODE, MODE_BWT, MODE_MTF),
+                         when(ZRLE_ENCODE, MODE_BWT, MODE_MTF),
+                         when(HUFFMAN_ENCODE, MODE_BWT, MODE_MTF))
+                .run(Pipeline.blocks(in, blockSize), sink(out));
+            ByteBuffer trailer = ByteBuffer.allocate(4);
+            trailer.putInt(END_OF_STREAM).flip();
+            write(out, trailer);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // decompress in to out
+    public static void decompress(ReadableByteChannel in, WritableByteChannel out) {
+        if (in == null || out == null) throw new IllegalArgumentException();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 2);
+            if (!readFully(in, header)) throw new IOException("not a BWZ stream");
+            header.flip();
+            for (int i = 0; i < MAGIC.length; i++)
+                if (header.get() != MAGIC[i]) throw new IOException("not a BWZ stream");
+            int version = header.get();
+            if (version != 1 && version != VERSION) throw new IOException("unsupported BWZ version " + version);
+            int level = header.get();
+            if (level < 1 || level > 9) throw new IOException("corrupt BWZ header");
+            int blockSize = blockSize(level);
+            new Pipeline(blockSize, Pipeline.DEFAULT_QUEUE_CAPACITY,
+                         when(huffmanDecode(blockSize), MODE_BWT, MODE_MTF),
+                         when(zrleDecode(blockSize), MODE_BWT, MODE_MTF),
+                         when(Pipeline.MTF_DECODE, MODE_BWT, MODE_MTF),
+                         when(Pipeline.BWT_DECODE, MODE_BWT),
+                         VERIFY)
+                .run(source(in, blockSize, version), Pipeline.bytes(out));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Pipeline.Sink sink(WritableByteChannel out) {
+        ByteBuffer header = ByteBuffer.allocate(13);
+        return c -> {
+            header.clear();
+            header.putInt(c.length()).putInt(c.id()).putInt(c.crc()).put((byte) c.mode()).flip();
+            write(out, header);
+            write(out, c.buffer());
+        };
+    }
+
+    private static Pipeline.Source source(ReadableByteChannel in, int blockSize, int version) {
+        ByteBuffer header = ByteBuffer.allocate(13);
+        int headerLength = version == 1 ? 12 : 13;
+        int maxLength = HuffmanCoder.maxEncodedLength(ZeroRunLength.maxEncodedLength(blockSize));
+        return c -> {
+            header.clear().limit(4);
+            if (!readFully(in, header)) throw new IOException("truncated BWZ stream");
+            int n = header.getInt(0);
+            if (n == END_OF_STREAM) return false;
+            if (n < 0 || n > maxLength) throw new IOException("corrupt block header");
+            header.limit(headerLength);
+            if (!readFully(in, header)) throw new IOException("truncated block header");
+            int mode = version == 1 ? MODE_BWT : header.get(12);
+            if (mode != MODE_BWT && mode != MODE_MTF && mode != MODE_STORED) throw new IOException("corrupt block mode");
+            if (mode == MODE_STORED && n > blockSize) throw new IOException("corrupt block header");
+            c.ensureCapacity(n);
+            c.setLength(n);
+            c.setId(header.getInt(4));
+            c.setCrc(header.getInt(8));
+            c.setMode(mode);
+            if (!readFully(in, ByteBuffer.wrap(c.data(), 0, n))) throw new IOException("truncated block");
+            return true;
+        };
+    }
+
+    private static void write(WritableByteChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining())
+            out.write(buf);
+    }
+
+    private static boolean readFully(ReadableByteChannel in, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining())
+            if (in.read(buf) < 0) return false;
+        return true;
+    }
+
+    // -d decompresses, -1 .. -9 compresses with that level, no argument compresses with -9
+    public static void main(String[] args) {
+        ReadableByteChannel in  = Channels.newChannel(System.in);
+        WritableByteChannel out = Channels.newChannel(System.out);
+        if (args.length > 0 && args[0].equals("-d")) {
+            decompress(in, out);
+        }
+        else if (args.length == 0) {
+            compress(in, out, DEFAULT_LEVEL);
+        }
+        else if (args[0].matches("-[1-9]")) {
+            compress(in, out, args[0].charAt(1) - '0');
+        }
+        else throw new IllegalArgumentException("usage: java Compressor [-1 .. -9 | -d]");
+        System.out.flush();
+    }
+}
@@ -0,0 +1,514 @@
+/******************************************************************************
+ *  Compilation:  javac FMIndex.java
+ *  Execution:    java FMIndex file.bwt file.fmi count   pattern
+ *                java FMIndex file.bwt file.fmi locate  pattern
+ *                java FMIndex file.bwt file.fmi extract from to
+ *  Dependencies: BurrowsWheeler.java CircularSuffixArray.java StdOut.java
+ *
+ *  FM-index over a Burrows-Wheeler transformed file, kept in a sidecar file
+ *  next to it (see BurrowsWheeler.encode(in, out, index)). The sidecar holds
+ *
+ *   - the symbols that occur in the block, sigma of them
+ *   - occurrence counts in two levels: for every superblock of SUPER rows
+ *     the count of each symbol before it, and for every block of BLOCK
+ *     rows the count of each symbol between the start of its superblock
+ *     and the block, in 16 bits
+ *   - suffix array samples: the text position of every row whose position
+ *     is a multiple of the sample rate, plus a bit per row marking them
+ *   - inverse samples: the row of every position that is such a multiple
+ *
+ *  The count of a symbol before row i is then two table lookups plus the
+ *  occurrences between row i and the nearer end of its block, at most
+ *  BLOCK / 2 symbols, counted eight at a time. With it, count(pattern) is a
+ *  backward search costing O(|pattern|) such counts, locate() walks at most
+ *  sampleRate LF steps per occurrence, and extract(from, to) decodes
+ *  to - from + sampleRate symbols, all without inverting the whole block.
+ *  read() maps the transform and the sidecar and keeps no copy of the
+ *  tables on the heap; it rejects a truncated sidecar, or one whose header,
+ *  counts or samples are out of range, with an IllegalArgumentException.
+ *
+ *  The transform is over the rotations of the text, so occurrences that
+ *  wrap around the end of the text are found by the backward search too;
+ *  count() and locate() leave them out. If the text is a power u^k of a
+ *  shorter string, the rotations starting at p and p + |u| are equal, so
+ *  positions are kept modulo the period |u| and expanded by locate().
+ *
+ *  Sidecar layout, big-endian:
+ *
+ *      int  MAGIC, VERSION, n, id, period, sampleRate, sigma
+ *      int[sigma]                               the symbols, in increasing order
+ *      int[(n / SUPER + 1) * sigma]             superblock counts
+ *      char[(n / BLOCK + 1) * sigma]            block counts, padded to an even length
+ *      long[(n + 63) / 64]                      sampled-row bits
+ *      int[number of sampled rows]              their positions, in row order
+ *      int[(period + sampleRate - 1) / sampleRate]    rows, by position
+ *
+ *  With BLOCK = 256 the block counts take 2 * sigma / 256 bytes per symbol
+ *  of text, and the superblock counts a 256th of that.
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.StdOut;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class FMIndex {
+
+    public static final int DEFAULT_SAMPLE_RATE = 32;
+
+    private static final int MAGIC = 0x464d4931;   // "FMI1"
+    private static final int VERSION = 2;
+    private static final int R = 256;
+    private static final int SUPER_BITS = 16;      // SUPER = 65536 rows per superblock, so block counts fit a char
+    private static final int BLOCK_BITS = 8;       // BLOCK = 256 rows per block
+    private static final int BLOCK = 1 << BLOCK_BITS;
+
+    private static final long LOWS  = 0x7f7f7f7f7f7f7f7fL;
+    private static final long ONES  = 0x0101010101010101L;
+
+    private final ByteBuffer bwt;   // last column of the sorted rotations
+    private final int n;
+    private final int id;
+    private final int period;       // length of the shortest u with text = u^k
+    private final int sampleRate;
+    private final int[] first;      // first[c] = number of symbols smaller than c
+    private final int[] symbols;    // the sigma symbols of bwt, in increasing order
+    private final int[] code;       // code[c] = index of c in symbols, -1 if c does not occur
+    private final IntBuffer superblocks;    // entry k*sigma + s: count of symbols[s] in bwt[0..k*SUPER)
+    private final CharBuffer blocks;        // entry k*sigma + s: the same from the start of the superblock to k*BLOCK
+    private final LongBuffer marked;        // rows whose text position is a multiple of sampleRate
+    private final int[] rankOf;     // number of marked rows before each word of marked
+    private final IntBuffer position;       // text position modulo period of the marked rows, in row order
+    private final IntBuffer row;            // row k = a row of text position k * sampleRate
+
+    // index of the block whose transform is bwt[0..n) with the given id and suffix array
+    public FMIndex(byte[] bwt, int id, CircularSuffixArray csa, int sampleRate) {
+        if (bwt == null || csa == null || csa.length() != bwt.length) throw new IllegalArgumentException();
+        if (sampleRate <= 0) throw new IllegalArgumentException("sample rate must be positive");
+        this.bwt = ByteBuffer.wrap(bwt);
+        this.n = bwt.length;
+        this.id = id;
+        this.sampleRate = sampleRate;
+
+        int[] count = new int[R];
+        for (byte b : bwt)
+            count[b & 0xff]++;
+        int sigma = 0;
+        for (int c = 0; c < R; c++)
+            if (count[c] > 0) sigma++;
+        this.symbols = new int[sigma];
+        for (int c = 0, s = 0; c < R; c++)
+            if (count[c] > 0) symbols[s++] = c;
+        this.code = codes(symbols);
+        this.superblocks = IntBuffer.allocate(((n >>> SUPER_BITS) + 1) * sigma);
+        this.blocks = CharBuffer.allocate(((n >>> BLOCK_BITS) + 1) * sigma);
+        counts(bwt, code, sigma, superblocks, blocks);
+        this.first = firstRows();
+        this.period = period(this.bwt, n, id, first);
+
+        int samples = (period + sampleRate - 1) / sampleRate;
+        long[] bits = new long[(n + 63) >>> 6];
+        int[] rows = new int[samples];
+        int marks = 0;
+        for (int i = 0; i < n; i++) {
+            int p = csa.index(i) % period;
+            if (p % sampleRate == 0) {
+                bits[i >>> 6] |= 1L << i;
+                rows[p / sampleRate] = i;
+                marks++;
+            }
+        }
+        this.marked = LongBuffer.wrap(bits);
+        this.rankOf = ranks(marked);
+        this.row = IntBuffer.wrap(rows);
+        int[] positions = new int[marks];
+        for (int i = 0, k = 0; i < n; i++)
+            if (isMarked(i)) positions[k++] = csa.index(i) % period;
+        this.position = IntBuffer.wrap(positions);
+    }
+
+    private FMIndex(ByteBuffer bwt, int n, int id, int period, int sampleRate, int[] symbols,
+                    IntBuffer superblocks, CharBuffer blocks, LongBuffer marked, IntBuffer position, IntBuffer row) {
+        this.bwt = bwt;
+        this.n = n;
+        this.id = id;
+        this.period = period;
+        this.sampleRate = sampleRate;
+        this.symbols = symbols;
+        this.code = codes(symbols);
+        this.superblocks = superblocks;
+        this.blocks = blocks;
+        this.first = firstRows();
+        this.marked = marked;
+        this.rankOf = ranks(marked);
+        this.position = position;
+        this.row = row;
+    }
+
+    private static int[] codes(int[] symbols) {
+        int[] code = new int[R];
+        Arrays.fill(code, -1);
+        for (int s = 0; s < symbols.length; s++)
+            code[symbols[s]] = s;
+        return code;
+    }
+
+    // fills in the superblock and block counts of bwt, for every block and
+    // superblock that starts at or before n
+    private static void counts(byte[] bwt, int[] code, int sigma, IntBuffer superblocks, CharBuffer blocks) {
+        int n = bwt.length;
+        int[] count = new int[sigma];
+        int[] base = new int[sigma];    // counts at the start of the current superblock
+        for (int i = 0; i <= n; i++) {
+            if ((i & (BLOCK - 1)) == 0) {
+                if ((i & ((1 << SUPER_BITS) - 1)) == 0) {
+                    System.arraycopy(count, 0, base, 0, sigma);
+                    for (int s = 0; s < sigma; s++)
+                        superblocks.put((i >>> SUPER_BITS) * sigma + s, count[s]);
+                }
+                int k = (i >>> BLOCK_BITS) * sigma;
+                for (int s = 0; s < sigma; s++)
+                    blocks.put(k + s, (char) (count[s] - base[s]));
+            }
+            if (i < n) count[code[bwt[i] & 0xff]]++;
+        }
+    }
+
+    private int[] firstRows() {
+        int[] first = new int[R + 1];
+        for (int c = 0; c < R; c++)
+            first[c+1] = first[c] + occurrences(c, n);
+        return first;
+    }
+
+    // length of the LF cycle through row id, which is the period of the text
+    private static int period(ByteBuffer bwt, int n, int id, int[] first) {
+        if (n == 0) return 1;
+        int[] next = first.clone();
+        int[] lf = new int[n];
+        for (int i = 0; i < n; i++)
+            lf[i] = next[bwt.get(i) & 0xff]++;
+        int d = 1;
+        for (int i = lf[id]; i != id; i = lf[i])
+            d++;
+        return d;
+    }
+
+    private static int[] ranks(LongBuffer bits) {
+        int[] rank = new int[bits.limit() + 1];
+        for (int w = 0; w < bits.limit(); w++)
+            rank[w+1] = rank[w] + Long.bitCount(bits.get(w));
+        return rank;
+    }
+
+    private boolean isMarked(int i) {
+        return (marked.get(i >>> 6) & (1L << i)) != 0;
+    }
+
+    // number of marked rows before row i
+    private int rank(int i) {
+        return rankOf[i >>> 6] + Long.bitCount(marked.get(i >>> 6) & ((1L << i) - 1));
+    }
+
+    // number of c in bwt[0..i)
+    private int occurrences(int c, int i) {
+        int s = code[c];
+        if (s < 0) return 0;
+        int k = i >>> BLOCK_BITS;
+        int from = k << BLOCK_BITS;
+        if (i - from <= BLOCK / 2 || from + BLOCK > n)
+            return counted(s, k) + scan(c, from, i);
+        return counted(s, k + 1) - scan(c, i, from + BLOCK);
+    }
+
+    // number of symbols[s] in bwt[0..k*BLOCK)
+    private int counted(int s, int k) {
+        int sigma = symbols.length;
+        return superblocks.get((k >>> (SUPER_BITS - BLOCK_BITS)) * sigma + s) + blocks.get(k * sigma + s);
+    }
+
+    // number of c in bwt[from..to), eight bytes at a time
+    private int scan(int c, int from, int to) {
+        long pattern = c * ONES;
+        int count = 0;
+        int j = from;
+        for (; j + 8 <= to; j += 8) {
+            long x = bwt.getLong(j) ^ pattern;
+            // high bit set in exactly the bytes of x that are zero
+            count += Long.bitCount(~(((x & LOWS) + LOWS) | x | LOWS));
+        }
+        for (; j < to; j++)
+            if ((bwt.get(j) & 0xff) == c) count++;
+        return count;
+    }
+
+    // row of the rotation that starts one position before the rotation of row i
+    private int lf(int i) {
+        int c = bwt.get(i) & 0xff;
+        return first[c] + occurrences(c, i);
+    }
+
+    // length of the text
+    public int length() {
+        return n;
+    }
+
+    // rows [lo, hi) of the rotations that start with pattern, as {lo, hi}
+    private int[] rows(byte[] pattern) {
+        int lo = 0, hi = n;
+        for (int i = pattern.length - 1; i >= 0 && lo < hi; i--) {
+            int c = pattern[i] & 0xff;
+            lo = first[c] + occurrences(c, lo);
+            hi = first[c] + occurrences(c, hi);
+        }
+        return new int[] { lo, hi };
+    }
+
+    // text position of the rotation in row i
+    private int locate(int i) {
+        int steps = 0;
+        while (!isMarked(i)) {
+            i = lf(i);
+            steps++;
+        }
+        return (position.get(rank(i)) + steps) % period;
+    }
+
+    // number of occurrences of pattern in the text
+    public int count(byte[] pattern) {
+        if (pattern == null) throw new IllegalArgumentException();
+        if (pattern.length == 0) return n;
+        if (pattern.length > n) return 0;
+        int[] r = rows(pattern);
+        return r[1] - r[0] - wrapping(pattern);
+    }
+
+    // number of matches of pattern that start in the last pattern.length - 1
+    // positions and so wrap around the end of the text
+    private int wrapping(byte[] pattern) {
+        int m = pattern.length;
+        if (m <= 1) return 0;
+        int from = n - (m - 1);
+        byte[] tail = extract(from, n);
+        byte[] head = extract(0, m - 1);
+        int count = 0;
+        for (int s = 0; s < m - 1; s++) {
+            boolean match = true;
+            for (int j = 0; j < m && match; j++) {
+                int k = s + j;
+                byte b = k < m - 1 ? tail[k] : head[k - (m - 1)];
+                match = b == pattern[j];
+            }
+            if (match) count++;
+        }
+        return count;
+    }
+
+    // positions of the occurrences of pattern in the text, in increasing order
+    public int[] locate(byte[] pattern) {
+        if (pattern == null) throw new IllegalArgumentException();
+        if (pattern.length == 0 || pattern.length > n) return new int[0];
+        int[] r = rows(pattern);
+        int[] result = new int[r[1] - r[0]];
+        for (int i = r[0]; i < r[1]; i++)
+            result[i - r[0]] = locate(i);
+        // in a periodic text every position modulo the period comes n / period
+        // times, once for each copy
+        Arrays.sort(result);
+        int k = 0;
+        for (int i = 0, copy = 0, prev = -1; i < result.length; i++) {
+            copy = result[i] == prev ? copy + 1 : 0;
+            prev = result[i];
+            int p = prev + copy * period;
+            if (p + pattern.length <= n) result[k++] = p;
+        }
+        result = Arrays.copyOf(result, k);
+        Arrays.sort(result);
+        return result;
+    }
+
+    // text[from..to)
+    public byte[] extract(int from, int to) {
+        if (from < 0 || to > n || from > to) throw new IllegalArgumentException();
+        byte[] out = new byte[to - from];
+        // text[p] = text[p % period], so decode one period at a time
+        for (int p = from; p < to; ) {
+            int q = Math.min(to, p - p % period + period);
+            extract(p % period, q - p + p % period, out, p - from);
+            p = q;
+        }
+        return out;
+    }
+
+    // text[from..to) with to <= period into out[off..), decoded backwards from
+    // the next inverse sample at or after to
+    private void extract(int from, int to, byte[] out, int off) {
+        int k = (to + sampleRate - 1) / sampleRate;
+        int p = k * sampleRate;
+        int i;
+        if (p >= period) {
+            p = period;
+            i = id;         // row of position 0, that is of position period
+        }
+        else i = row.get(k);
+        for (; p > from; p--) {
+            // bwt[i] is the symbol before the rotation of row i
+            if (p <= to) out[off + p - 1 - from] = bwt.get(i);
+            i = lf(i);
+        }
+    }
+
+    // writes the sidecar for this index to file
+    public void write(Path file) {
+        try (OutputStream os = Files.newOutputStream(file)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(id);
+            out.writeInt(period);
+            out.writeInt(sampleRate);
+            out.writeInt(symbols.length);
+            for (int c : symbols)
+                out.writeInt(c);
+            for (int k = 0; k < superblocks.limit(); k++)
+                out.writeInt(superblocks.get(k));
+            for (int k = 0; k < blocks.limit(); k++)
+                out.writeChar(blocks.get(k));
+            if (blocks.limit() % 2 != 0) out.writeChar(0);
+            for (int w = 0; w < marked.limit(); w++)
+                out.writeLong(marked.get(w));
+            for (int k = 0; k < position.limit(); k++)
+                out.writeInt(position.get(k));
+            for (int k = 0; k < row.limit(); k++)
+                out.writeInt(row.get(k));
+            out.flush();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // opens the index of a BurrowsWheeler file; the transform stays memory-mapped
+    public static FMIndex read(Path bwtFile, Path indexFile) {
+        try (FileChannel data = FileChannel.open(bwtFile, StandardOpenOption.READ);
+             FileChannel side = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            if (data.size() < 4) throw new IllegalArgumentException("not a Burrows-Wheeler file");
+            ByteBuffer mapped = data.map(FileChannel.MapMode.READ_ONLY, 0, data.size());
+            int id = mapped.getInt();
+            ByteBuffer bwt = mapped.slice();
+
+            ByteBuffer in = side.map(FileChannel.MapMode.READ_ONLY, 0, side.size());
+            if (in.remaining() < 28 || in.getInt() != MAGIC) throw new IllegalArgumentException("not an FM-index sidecar");
+            if (in.getInt() != VERSION) throw new IllegalArgumentException("unsupported FM-index version");
+            int n = in.getInt();
+            if (in.getInt() != id || n != bwt.remaining())
+                throw new IllegalArgumentException("sidecar does not match " + bwtFile);
+            if (n > 0 ? id < 0 || id >= n : id != 0) throw new IllegalArgumentException("primary row out of range");
+            int period = in.getInt();
+            int sampleRate = in.getInt();
+            int sigma = in.getInt();
+            if (period <= 0 || period > Math.max(n, 1) || n % period != 0)
+                throw new IllegalArgumentException("corrupt FM-index sidecar: period " + period + " of " + n + " bytes");
+            if (sampleRate <= 0) throw new IllegalArgumentException("corrupt FM-index sidecar: sample rate " + sampleRate);
+            if (sigma < 0 || sigma > R) throw new IllegalArgumentException("corrupt FM-index sidecar: " + sigma + " symbols");
+            int[] symbols = new int[sigma];
+            region(in, 4L * sigma).asIntBuffer().get(symbols);
+            for (int s = 0; s < sigma; s++)
+                if (symbols[s] < 0 || symbols[s] >= R || s > 0 && symbols[s] <= symbols[s-1])
+                    throw new IllegalArgumentException("corrupt FM-index sidecar: symbol table");
+            IntBuffer superblocks = region(in, 4L * ((n >>> SUPER_BITS) + 1) * sigma).asIntBuffer();
+            long blockChars = (long) ((n >>> BLOCK_BITS) + 1) * sigma;
+            CharBuffer blocks = region(in, 2 * (blockChars + blockChars % 2)).asCharBuffer();
+            blocks.limit((int) blockChars);
+            LongBuffer marked = region(in, 8L * ((n + 63) >>> 6)).asLongBuffer();
+            IntBuffer position = region(in, 4L * ranks(marked)[marked.limit()]).asIntBuffer();
+            IntBuffer row = region(in, 4L * ((period + sampleRate - 1) / sampleRate)).asIntBuffer();
+            FMIndex index = new FMIndex(bwt, n, id, period, sampleRate, symbols, superblocks, blocks, marked, position, row);
+            index.validate();
+            return index;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // checks of the tables read from a sidecar that the queries rely on: the
+    // counts add up to n and grow by BLOCK a block, and the samples
+    // are in range and consistent with each other. Costs O(n / BLOCK * sigma
+    // + n / sampleRate); the counts are not compared with the transform itself
+    private void validate() {
+        for (int c = 0; c < R; c++)
+            if (first[c+1] < first[c]) throw new IllegalArgumentException("corrupt FM-index sidecar: negative count");
+        if (first[R] != n) throw new IllegalArgumentException("corrupt FM-index sidecar: counts do not add up to " + n);
+        int sigma = symbols.length;
+        int[] prev = new int[sigma];
+        for (int s = 0; s < sigma; s++)
+            if (counted(s, 0) != 0) throw new IllegalArgumentException("corrupt FM-index sidecar: block counts");
+        for (int k = 1; k <= n >>> BLOCK_BITS; k++) {
+            int grown = 0;
+            for (int s = 0; s < sigma; s++) {
+                int count = counted(s, k);
+                if (count < prev[s]) throw new IllegalArgumentException("corrupt FM-index sidecar: block counts");
+                grown += count - prev[s];
+                prev[s] = count;
+            }
+            if (grown != BLOCK) throw new IllegalArgumentException("corrupt FM-index sidecar: block counts");
+        }
+        if ((n & 63) != 0 && marked.get(marked.limit() - 1) >>> (n & 63) != 0)
+            throw new IllegalArgumentException("corrupt FM-index sidecar: sampled row past the end");
+        // every position that is a multiple of sampleRate occurs once per copy of the period
+        if (position.limit() != n / period * row.limit())
+            throw new IllegalArgumentException("corrupt FM-index sidecar: " + position.limit() + " sampled rows");
+        for (int k = 0; k < position.limit(); k++) {
+            int p = position.get(k);
+            if (p < 0 || p >= period || p % sampleRate != 0)
+                throw new IllegalArgumentException("corrupt FM-index sidecar: sampled position " + p);
+        }
+        if (n == 0) return;
+        for (int k = 0; k < row.limit(); k++) {
+            int i = row.get(k);
+            if (i < 0 || i >= n || !isMarked(i) || position.get(rank(i)) != k * sampleRate)
+                throw new IllegalArgumentException("corrupt FM-index sidecar: row " + i + " of position " + k * sampleRate);
+        }
+    }
+
+    // the next bytes of buf, which advances past them
+    private static ByteBuffer region(ByteBuffer buf, long bytes) {
+        if (bytes > buf.remaining()) throw new IllegalArgumentException("truncated FM-index sidecar");
+        ByteBuffer region = buf.slice();
+        region.limit((int) bytes);
+        buf.position(buf.position() + (int) bytes);
+        return region;
+    }
+
+    public static void main(String[] args) {
+        FMIndex index = read(Paths.get(args[0]), Paths.get(args[1]));
+        if (args[2].equals("count")) {
+            StdOut.println(index.count(args[3].getBytes(StandardCharsets.ISO_8859_1)));
+        }
+        else if (args[2].equals("locate")) {
+            for (int p : index.locate(args[3].getBytes(StandardCharsets.ISO_8859_1)))
+                StdOut.println(p);
+        }
+        else if (args[2].equals("extract")) {
+            byte[] text = index.extract(Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+            StdOut.println(new String(text, StandardCharsets.ISO_8859_1));
+        }
+        else throw new IllegalArgumentException();
+    }
+}
@@ -0,0 +1,182 @@
+/******************************************************************************
+ *  Compilation:  javac HuffmanCoder.java
+ *  Execution:    none
+ *  Dependencies: none
+ *
+ *  Canonical, length-limited Huffman coding of a block of bytes, decoded
+ *  with a single lookup table. The coded block is
+ *
+ *      int n           number of symbols
+ *      byte[128]       code length of every byte value, 4 bits each
+ *      bits            the codes, most significant bit first, zero padded
+ *
+ *  Codes are at most MAX_LENGTH bits long, so the decoding table has at most
+ *  2^MAX_LENGTH entries and every symbol costs one lookup.
+ *
+ ******************************************************************************/
+
+import java.util.PriorityQueue;
+
+public class HuffmanCoder {
+
+    private static final int R = 256;
+    private static final int MAX_LENGTH = 15;
+    private static final int HEADER = 4 + R / 2;
+
+    // largest number of bytes encode() can produce from len bytes
+    public static int maxEncodedLength(int len) {
+        return HEADER + (int) (((long) len * MAX_LENGTH + 7) / 8);
+    }
+
+    // encodes a[off..off+len) into out, returns the number of bytes written
+    public static int encode(byte[] a, int off, int len, byte[] out) {
+        int[] freq = new int[R];
+        for (int i = off; i < off + len; i++)
+            freq[a[i] & 0xff]++;
+        int[] length = codeLengths(freq);
+        int[] code = canonicalCodes(length);
+
+        writeInt(out, 0, len);
+        for (int c = 0; c < R; c += 2)
+            out[4 + c / 2] = (byte) ((length[c] << 4) | length[c+1]);
+
+        int n = HEADER;
+        long buffer = 0;
+        int bits = 0;
+        for (int i = off; i < off + len; i++) {
+            int c = a[i] & 0xff;
+            buffer = (buffer << length[c]) | code[c];
+            bits += length[c];
+            while (bits >= 8) {
+                bits -= 8;
+                out[n++] = (byte) (buffer >>> bits);
+            }
+        }
+        if (bits > 0) out[n++] = (byte) (buffer << (8 - bits));
+        return n;
+    }
+
+    // number of bytes decode() produces from the coded block at a[off..)
+    public static int decodedLength(byte[] a, int off) {
+        return readInt(a, off);
+    }
+
+    // decodes the coded block a[off..off+len) into out, returns the number of bytes written
+    public static int decode(byte[] a, int off, int len, byte[] out) {
+        if (len < HEADER) throw new IllegalArgumentException("truncated Huffman header");
+        int n = readInt(a, off);
+        int[] length = new int[R];
+        int maxLength = 0;
+        for (int c = 0; c < R; c += 2) {
+            int b = a[off + 4 + c / 2] & 0xff;
+            length[c]   = b >>> 4;
+            length[c+1] = b & 0xf;
+            maxLength = Math.max(maxLength, Math.max(length[c], length[c+1]));
+        }
+        if (n == 0) return 0;
+        if (maxLength == 0) throw new IllegalArgumentException("empty Huffman code");
+
+        // entry = symbol << 4 | code length, for every maxLength-bit prefix
+        int[] code = canonicalCodes(length);
+        int[] table = new int[1 << maxLength];
+        for (int c = 0; c < R; c++) {
+            if (length[c] == 0) continue;
+            int shift = maxLength - length[c];
+            int first = code[c] << shift;
+            if (first + (1 << shift) > table.length)
+                throw new IllegalArgumentException("corrupt Huffman code lengths");
+            for (int k = 0; k < 1 << shift; k++)
+                table[first + k] = (c << 4) | length[c];
+        }
+
+        int mask = (1 << maxLength) - 1;
+        int in = off + HEADER, end = off + len;
+        long buffer = 0;
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            while (bits < maxLength) {
+                // past the end of the input, pad with zeros
+                buffer = (buffer << 8) | (in < end ? a[in] & 0xff : 0);
+                in++;
+                bits += 8;
+            }
+            int entry = table[(int) (buffer >>> (bits - maxLength)) & mask];
+            if (entry == 0) throw new IllegalArgumentException("corrupt Huffman code");
+            bits -= entry & 0xf;
+            out[i] = (byte) (entry >>> 4);
+        }
+        if (in - (bits >>> 3) > end) throw new IllegalArgumentException("truncated Huffman block");
+        return n;
+    }
+
+    // Huffman code lengths of the symbols in freq[], none longer than MAX_LENGTH
+    private static int[] codeLengths(int[] freq) {
+        int[] weight = freq.clone();
+        while (true) {
+            int[] length = huffmanLengths(weight);
+            int max = 0;
+            for (int c = 0; c < R; c++)
+                max = Math.max(max, length[c]);
+            if (max <= MAX_LENGTH) return length;
+            // flatten the distribution and retry
+            for (int c = 0; c < R; c++)
+                if (weight[c] > 0) weight[c] = (weight[c] + 1) >>> 1;
+        }
+    }
+
+    private static int[] huffmanLengths(int[] weight) {
+        int[] length = new int[R];
+        int[] parent = new int[2 * R];
+        // queue entries are weight << 10 | node, so ties break on node number
+        PriorityQueue<Long> pq = new PriorityQueue<Long>();
+        for (int c = 0; c < R; c++)
+            if (weight[c] > 0) pq.add(((long) weight[c] << 10) | c);
+        if (pq.size() == 1) {
+            length[(int) (pq.poll() & 0x3ff)] = 1;
+            return length;
+        }
+        int next = R;
+        while (pq.size() > 1) {
+            long x = pq.poll();
+            long y = pq.poll();
+            parent[(int) (x & 0x3ff)] = next;
+            parent[(int) (y & 0x3ff)] = next;
+            pq.add((((x >>> 10) + (y >>> 10)) << 10) | next);
+            next++;
+        }
+        // depth of every internal node, root last
+        int[] depth = new int[2 * R];
+        for (int v = next - 2; v >= R; v--)
+            depth[v] = depth[parent[v]] + 1;
+        for (int c = 0; c < R; c++)
+            if (weight[c] > 0) length[c] = depth[parent[c]] + 1;
+        return length;
+    }
+
+    // canonical codes: shorter codes first, then by symbol
+    private static int[] canonicalCodes(int[] length) {
+        int[] count = new int[MAX_LENGTH + 1];
+        for (int c = 0; c < R; c++)
+            count[length[c]]++;
+        count[0] = 0;
+        int[] next = new int[MAX_LENGTH + 2];
+        for (int len = 1; len <= MAX_LENGTH; len++)
+            next[len + 1] = (next[len] + count[len]) << 1;
+        int[] code = new int[R];
+        for (int c = 0; c < R; c++)
+            if (length[c] > 0) code[c] = next[length[c]]++;
+        return code;
+    }
+
+    private static void writeInt(byte[] a, int off, int x) {
+        a[off]     = (byte) (x >>> 24);
+        a[off + 1] = (byte) (x >>> 16);
+        a[off + 2] = (byte) (x >>> 8);
+        a[off + 3] = (byte) x;
+    }
+
+    private static int readInt(byte[] a, int off) {
+        return ((a[off] & 0xff) << 24) | ((a[off + 1] & 0xff) << 16)
+             | ((a[off + 2] & 0xff) << 8) | (a[off + 3] & 0xff);
+    }
+}
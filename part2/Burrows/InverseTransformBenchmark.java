@@ -0,0 +1,102 @@
+/******************************************************************************
+ *  Compilation:  javac InverseTransformBenchmark.java
+ *  Execution:    java -Xmx4g InverseTransformBenchmark [trials] [MB ...]
+ *  Dependencies: BurrowsWheeler.java CircularSuffixArray.java
+ *                MoveToFrontBenchmark.java StdOut.java Stopwatch.java
+ *
+ *  Inverse Burrows-Wheeler throughput on 1 MB, 16 MB and 128 MB blocks (or
+ *  the sizes given), comparing the original decode() loop (next[] chase plus
+ *  a separate symbol array) with the packed LF-mapping, single-stream and
+ *  with 4 and 16 interleaved streams. The first trial of each engine is a
+ *  warm-up and is not timed.
+ *
+ *  Every block is the transform of English-like text from
+ *  MoveToFrontBenchmark.text(), so the engines follow the LF cycle of real
+ *  BWT output. The suffix array takes about 16 bytes per input byte, so the
+ *  128 MB block needs the -Xmx4g below. The block is sorted once, with 16
+ *  streams; as its length is a multiple of 16, the start rows for 4 streams
+ *  and for 1 are every 4th and the first of those.
+ *
+ *  % java -Xmx4g InverseTransformBenchmark 3
+ *  size    reference     packed   4 streams  16 streams   (MB/s)
+ *  ...
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.Stopwatch;
+
+public class InverseTransformBenchmark {
+
+    private static final int MB = 1 << 20;
+    private static final int[] STREAMS = { 1, 4, 16 };     // the last is a multiple of the others
+
+    // the original BurrowsWheeler.decode() loop, minus the I/O
+    private static void reference(byte[] t, int id, byte[] out) {
+        int n = t.length;
+        byte[] coll = new byte[n];
+        int[] next = new int[n];
+        int[] counts = new int[256];
+        for (int i = 0; i < n; i++)
+            counts[t[i] & 0xff]++;
+        for (int i = 1; i < 256; i++)
+            counts[i] += counts[i-1];
+        for (int i = n-1; i >= 0; i--) {
+            int c = t[i] & 0xff;
+            int j = --counts[c];
+            next[j] = i;
+            coll[j] = t[i];
+        }
+        for (int i = 0; i < n; id = next[id], i++)
+            out[i] = coll[id];
+    }
+
+    public static void main(String[] args) {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int[] sizes = { 1, 16, 128 };
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+                sizes[i-1] = Integer.parseInt(args[i]);
+        }
+
+        StdOut.printf("%-6s %10s", "size", "reference");
+        for (int s : STREAMS)
+            StdOut.printf(" %10s", s == 1 ? "packed" : s + " streams");
+        StdOut.println("   (MB/s)");
+
+        for (int size : sizes) {
+            int n = size * MB;
+            byte[] t = new byte[n];
+            int most = STREAMS[STREAMS.length - 1];
+            int[][] rows = new int[STREAMS.length][];
+            rows[STREAMS.length - 1] = new int[most];
+            BurrowsWheeler.transform(MoveToFrontBenchmark.text(n), 0, n, t, rows[STREAMS.length - 1]);
+            for (int s = 0; s < STREAMS.length - 1; s++) {
+                rows[s] = new int[STREAMS[s]];
+                for (int k = 0; k < STREAMS[s]; k++)
+                    rows[s][k] = rows[STREAMS.length - 1][k * (most / STREAMS[s])];
+            }
+            byte[] out = new byte[n];
+
+            StdOut.printf("%4dMB", size);
+            double total = 0;
+            for (int trial = 0; trial <= trials; trial++) {
+                Stopwatch sw = new Stopwatch();
+                reference(t, rows[0][0], out);
+                if (trial > 0) total += sw.elapsedTime();
+            }
+            StdOut.printf(" %10.1f", (double) size * trials / Math.max(total, 1e-3));
+            for (int s = 0; s < STREAMS.length; s++) {
+                total = 0;
+                for (int trial = 0; trial <= trials; trial++) {
+                    Stopwatch sw = new Stopwatch();
+                    BurrowsWheeler.inverseTransform(t, 0, n, rows[s], out);
+                    if (trial > 0) total += sw.elapsedTime();
+                }
+                StdOut.printf(" %10.1f", (double) size * trials / Math.max(total, 1e-3));
+            }
+            StdOut.println();
+        }
+    }
+}
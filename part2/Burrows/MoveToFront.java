@@ -1,58 +1,183 @@
 import edu.princeton.cs.algs4.BinaryStdIn;
 import edu.princeton.cs.algs4.BinaryStdOut;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 public class MoveToFront {
 
     private static final int R = 256;
+    private static final int CHUNK = 1 << 13;  // bytes buffered per kernel call on standard input
+    private static final int MAPPED_CHUNK = 1 << 16;   // bytes copied per kernel call from a mapping
+    private static final long WINDOW = 1L << 28;       // bytes of the files mapped at a time
+    private static final long ONES  = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
 
     // apply move-to-front encoding, reading from standard input and writing to standard output
     public static void encode() {
-        char[] in  = BinaryStdIn.readString().toCharArray();
-        char[] mtf = new char[R];
-        for (char i = 0; i < R; i++)
-            mtf[i] = i;
-        for (int i = 0; i < in.length; i++) {
-            char c = 0;
-            for (char j = 0; j < 256; j++) {
-                char tmp = mtf[j];
-                mtf[j] = c;
-                c = tmp;
-                if (c == in[i]) {
-                    mtf[0] = c;
-                    BinaryStdOut.write(j);
-                    break;
-                }
-            }
+        long[] mtf = packedIdentity();
+        byte[] a = new byte[CHUNK];
+        while (!BinaryStdIn.isEmpty()) {
+            int n = 0;
+            while (n < CHUNK && !BinaryStdIn.isEmpty())
+                a[n++] = (byte) BinaryStdIn.readChar();
+            encode(a, 0, n, mtf);
+            for (int i = 0; i < n; i++)
+                BinaryStdOut.write((char) (a[i] & 0xff));
         }
         BinaryStdOut.flush();
     }
 
     // apply move-to-front decoding, reading from standard input and writing to standard output
     public static void decode() {
-        char[] in  = BinaryStdIn.readString().toCharArray();
-        char[] mtf = new char[R];
-        for (char i = 0; i < R; i++)
-            mtf[i] = i;
-        for (int i = 0; i < in.length; i++) {
-            char c = 0;
-            for (int j = 0; j < R; j++) {
-                char tmp = mtf[j];
-                mtf[j] = c;
-                c = tmp;
-                if (j == in[i]) {
-                    mtf[0] = c;
-                    BinaryStdOut.write(c);
-                    break;
+        byte[] mtf = identity();
+        byte[] a = new byte[CHUNK];
+        while (!BinaryStdIn.isEmpty()) {
+            int n = 0;
+            while (n < CHUNK && !BinaryStdIn.isEmpty())
+                a[n++] = (byte) BinaryStdIn.readChar();
+            decode(a, 0, n, mtf);
+            for (int i = 0; i < n; i++)
+                BinaryStdOut.write((char) (a[i] & 0xff));
+        }
+        BinaryStdOut.flush();
+    }
+
+    // apply move-to-front encoding from file in to file out, through memory-mapped buffers
+    public static void encode(Path in, Path out) {
+        transcode(in, out, true);
+    }
+
+    // apply move-to-front decoding from file in to file out, through memory-mapped buffers
+    public static void decode(Path in, Path out) {
+        transcode(in, out, false);
+    }
+
+    // the files are mapped WINDOW bytes at a time and moved through the
+    // kernels in bulk copies of MAPPED_CHUNK bytes, keeping table state across chunks
+    private static void transcode(Path in, Path out, boolean encode) {
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(out, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = src.size();
+            long[] packed = packedIdentity();
+            byte[] mtf = identity();
+            byte[] a = new byte[MAPPED_CHUNK];
+            for (long pos = 0; pos < size; pos += WINDOW) {
+                long len = Math.min(WINDOW, size - pos);
+                MappedByteBuffer from = src.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                MappedByteBuffer to   = dst.map(FileChannel.MapMode.READ_WRITE, pos, len);
+                while (from.hasRemaining()) {
+                    int n = Math.min(a.length, from.remaining());
+                    from.get(a, 0, n);
+                    if (encode) encode(a, 0, n, packed);
+                    else        decode(a, 0, n, mtf);
+                    to.put(a, 0, n);
                 }
             }
         }
-        BinaryStdOut.flush();
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // move-to-front encode a[off..off+len) in place
+    public static void encode(byte[] a, int off, int len) {
+        encode(a, off, len, packedIdentity());
+    }
+
+    // move-to-front decode a[off..off+len) in place
+    public static void decode(byte[] a, int off, int len) {
+        decode(a, off, len, identity());
+    }
+
+    // t[] lists the symbols front to back, eight to a long with the front
+    // symbol in the low byte of t[0]. Runs of the front symbol, which dominate
+    // BWT output, are coded as zeros without touching the table; otherwise a
+    // zero-byte test on each word xor c * ONES finds the rank eight symbols at
+    // a time, and the words in front of it shift up by a byte, each carrying
+    // its last symbol into the next.
+    private static void encode(byte[] a, int off, int len, long[] t) {
+        int hi = off + len;
+        int i = off;
+        while (i < hi) {
+            byte front = (byte) t[0];
+            while (i < hi && a[i] == front)
+                a[i++] = 0;
+            if (i == hi) break;
+
+            long c = a[i] & 0xff;
+            long pattern = c * ONES;
+            int w = 0;
+            long x;
+            while (true) {
+                x = t[w] ^ pattern;
+                x = (x - ONES) & ~x & HIGHS;    // high bit set in the bytes equal to c
+                if (x != 0) break;
+                w++;
+            }
+            int b = Long.numberOfTrailingZeros(x) >>> 3;
+            long carry = c;
+            for (int k = 0; k < w; k++) {
+                long word = t[k];
+                t[k] = (word << 8) | carry;
+                carry = word >>> 56;
+            }
+            long mask = -1L >>> (56 - 8*b);     // bytes 0..b of the word
+            t[w] = (t[w] & ~mask) | (((t[w] << 8) | carry) & mask);
+            a[i++] = (byte) (8*w + b);
+        }
+    }
+
+    // the rank indexes the table directly, and the symbols in front of it
+    // move down with one block move
+    private static void decode(byte[] a, int off, int len, byte[] mtf) {
+        int hi = off + len;
+        int i = off;
+        while (i < hi) {
+            byte front = mtf[0];
+            while (i < hi && a[i] == 0)
+                a[i++] = front;
+            if (i == hi) break;
+
+            int j = a[i] & 0xff;
+            byte c = mtf[j];
+            if (j == 1) mtf[1] = front;
+            else        System.arraycopy(mtf, 0, mtf, 1, j);
+            mtf[0] = c;
+            a[i++] = c;
+        }
+    }
+
+    private static long[] packedIdentity() {
+        long[] t = new long[R / 8];
+        for (int i = 0; i < R; i++)
+            t[i >>> 3] |= (long) i << (8 * (i & 7));
+        return t;
+    }
+
+    private static byte[] identity() {
+        byte[] mtf = new byte[R];
+        for (int i = 0; i < R; i++)
+            mtf[i] = (byte) i;
+        return mtf;
     }
 
     // if args[0] is '-', apply move-to-front encoding
     // if args[0] is '+', apply move-to-front decoding
+    // with args[1] and args[2], read from file args[1] and write to file args[2] through mapped buffers
     public static void main(String[] args) {
-        if      (args[0].equals("-")) encode();
+        if (args.length == 3) {
+            Path in = Paths.get(args[1]), out = Paths.get(args[2]);
+            if      (args[0].equals("-")) encode(in, out);
+            else if (args[0].equals("+")) decode(in, out);
+            else throw new IllegalArgumentException();
+        }
+        else if (args[0].equals("-")) encode();
         else if (args[0].equals("+")) decode();
         else throw new IllegalArgumentException();
     }
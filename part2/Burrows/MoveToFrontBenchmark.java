@@ -0,0 +1,140 @@
+/******************************************************************************
+ *  Compilation:  javac MoveToFrontBenchmark.java
+ *  Execution:    java MoveToFrontBenchmark [n] [trials]
+ *  Dependencies: MoveToFront.java BurrowsWheeler.java StdRandom.java
+ *                StdOut.java Stopwatch.java
+ *
+ *  Throughput of the move-to-front kernels on Burrows-Wheeler output, each
+ *  next to the original char-by-char loop for the same direction. The input
+ *  is English-like text (random words drawn from a small vocabulary, with a
+ *  random number now and then) of n bytes, transformed with
+ *  BurrowsWheeler.transform(). The first trial of each kernel is a warm-up
+ *  and is not timed.
+ *
+ *  % java MoveToFrontBenchmark 4194304 10
+ *  kernel               MB/s  speedup
+ *  ...
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+import java.util.Arrays;
+
+public class MoveToFrontBenchmark {
+
+    private static final int R = 256;
+
+    private static final String[] WORDS = {
+        "the", "of", "and", "to", "in", "is", "was", "that", "for", "on",
+        "request", "response", "error", "warning", "info", "debug", "user",
+        "session", "timeout", "connection", "server", "client", "GET", "POST",
+        "200", "404", "500", "ms", "bytes", "id"
+    };
+
+    // English-like text of n bytes, shared with InverseTransformBenchmark
+    static byte[] text(int n) {
+        byte[] a = new byte[n];
+        int i = 0;
+        while (i < n) {
+            String w = WORDS[StdRandom.uniform(WORDS.length)];
+            for (int k = 0; k < w.length() && i < n; k++)
+                a[i++] = (byte) w.charAt(k);
+            if (i < n) a[i++] = (byte) (StdRandom.uniform(8) == 0 ? '\n' : ' ');
+            // a random number now and then keeps the text from being too periodic
+            if (i < n - 8 && StdRandom.uniform(4) == 0) {
+                int x = StdRandom.uniform(100000);
+                for (char ch : Integer.toString(x).toCharArray())
+                    a[i++] = (byte) ch;
+                a[i++] = ' ';
+            }
+        }
+        return a;
+    }
+
+    private static byte[] bwtText(int n) {
+        byte[] t = new byte[n];
+        BurrowsWheeler.transform(text(n), 0, n, t);
+        return t;
+    }
+
+    // the original MoveToFront.encode() loop, minus the I/O
+    private static void reference(byte[] a) {
+        char[] mtf = new char[R];
+        for (char i = 0; i < R; i++)
+            mtf[i] = i;
+        for (int i = 0; i < a.length; i++) {
+            char in = (char) (a[i] & 0xff);
+            char c = 0;
+            for (char j = 0; j < R; j++) {
+                char tmp = mtf[j];
+                mtf[j] = c;
+                c = tmp;
+                if (c == in) {
+                    mtf[0] = c;
+                    a[i] = (byte) j;
+                    break;
+                }
+            }
+        }
+    }
+
+    // the original MoveToFront.decode() loop, minus the I/O
+    private static void referenceDecode(byte[] a) {
+        char[] mtf = new char[R];
+        for (char i = 0; i < R; i++)
+            mtf[i] = i;
+        for (int i = 0; i < a.length; i++) {
+            char in = (char) (a[i] & 0xff);
+            char c = 0;
+            for (int j = 0; j < R; j++) {
+                char tmp = mtf[j];
+                mtf[j] = c;
+                c = tmp;
+                if (j == in) {
+                    mtf[0] = c;
+                    a[i] = (byte) c;
+                    break;
+                }
+            }
+        }
+    }
+
+    private static double megabytesPerSecond(byte[] input, int trials, int kernel) {
+        byte[] a = new byte[input.length];
+        double total = 0;
+        for (int t = 0; t <= trials; t++) {
+            System.arraycopy(input, 0, a, 0, a.length);
+            Stopwatch sw = new Stopwatch();
+            if      (kernel == 0) reference(a);
+            else if (kernel == 1) MoveToFront.encode(a, 0, a.length);
+            else if (kernel == 2) referenceDecode(a);
+            else                  MoveToFront.decode(a, 0, a.length);
+            if (t > 0) total += sw.elapsedTime();
+        }
+        return input.length / 1e6 * trials / Math.max(total, 1e-3);
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 22;
+        int trials = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        byte[] bwt = bwtText(n);
+        byte[] mtf = bwt.clone();
+        MoveToFront.encode(mtf, 0, mtf.length);
+        byte[] check = mtf.clone();
+        referenceDecode(check);
+        if (!Arrays.equals(check, bwt)) throw new IllegalStateException("decode does not invert encode");
+
+        double refEnc = megabytesPerSecond(bwt, trials, 0);
+        double enc    = megabytesPerSecond(bwt, trials, 1);
+        double refDec = megabytesPerSecond(mtf, trials, 2);
+        double dec    = megabytesPerSecond(mtf, trials, 3);
+        StdOut.printf("%-16s %8s %8s\n", "kernel", "MB/s", "speedup");
+        StdOut.printf("%-16s %8.1f %8s\n",   "reference encode", refEnc, "1.00");
+        StdOut.printf("%-16s %8.1f %8.2f\n", "encode",           enc, enc / refEnc);
+        StdOut.printf("%-16s %8.1f %8s\n",   "reference decode", refDec, "1.00");
+        StdOut.printf("%-16s %8.1f %8.2f\n", "decode",           dec, dec / refDec);
+    }
+}
@@ -0,0 +1,337 @@
+/******************************************************************************
+ *  Compilation:  javac Pipeline.java
+ *  Execution:    java Pipeline - [blockSize] < input.txt   (BWT then MTF)
+ *                java Pipeline + [blockSize] < input.mtf   (inverse MTF then inverse BWT)
+ *  Dependencies: BurrowsWheeler.java MoveToFront.java CircularSuffixArray.java
+ *
+ *  Streaming, bounded-memory transform pipeline. A source cuts the input into
+ *  chunks, every stage runs on its own thread, and stages are connected by
+ *  bounded queues, so block i+1 is being read while block i is sorted and
+ *  block i-1 is move-to-front coded and written.
+ *
+ *  Chunks are drawn from a fixed pool and recycled once the sink has written
+ *  them. Memory is therefore bounded by memoryCeiling() (plus the working
+ *  space of whichever stages are running) no matter how long the input is.
+ *
+ *  Framed streams hold, for every chunk,
+ *
+ *      int length      number of bytes in the chunk
+ *      int id          header field set by the stages (the BWT id)
+ *      byte[length]    chunk data
+ *
+ *  which is the same layout as BlockBurrowsWheeler. A reader takes the
+ *  largest length it accepts, so a corrupt header cannot make it allocate
+ *  past the memory ceiling.
+ *
+ ******************************************************************************/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class Pipeline {
+
+    public static final int DEFAULT_BLOCK_SIZE = BlockBurrowsWheeler.DEFAULT_BLOCK_SIZE;
+    public static final int DEFAULT_QUEUE_CAPACITY = 2;
+
+    // a block of bytes travelling down the pipeline, plus the header fields
+    // stages attach to it; spare is scratch space for out-of-place stages
+    public static final class Chunk {
+        private byte[] data  = new byte[0];
+        private byte[] spare = new byte[0];
+        private int length;
+        private int id;
+        private int crc;    // checksum of the uncompressed chunk, for containers that keep one
+        private int mode;   // how the chunk is coded, for containers that choose per chunk
+
+        public byte[] data()  { return data;   }
+        public int length()   { return length; }
+        public int id()       { return id;     }
+        public int crc()      { return crc;    }
+        public int mode()     { return mode;   }
+
+        public void setId(int id)     { this.id = id;     }
+        public void setCrc(int crc)   { this.crc = crc;   }
+        public void setMode(int mode) { this.mode = mode; }
+
+        public void setLength(int length) {
+            if (length < 0 || length > data.length) throw new IllegalArgumentException();
+            this.length = length;
+        }
+
+        // view of the live bytes of the chunk
+        public ByteBuffer buffer() {
+            return ByteBuffer.wrap(data, 0, length);
+        }
+
+        // makes sure data can hold capacity bytes, keeping the live bytes
+        public void ensureCapacity(int capacity) {
+            if (data.length < capacity) {
+                byte[] a = new byte[capacity];
+                System.arraycopy(data, 0, a, 0, length);
+                data = a;
+            }
+        }
+
+        // scratch array of at least capacity bytes
+        public byte[] spare(int capacity) {
+            if (spare.length < capacity) spare = new byte[capacity];
+            return spare;
+        }
+
+        // makes the first length bytes of spare the live data
+        public void swap(int length) {
+            byte[] tmp = data;
+            data = spare;
+            spare = tmp;
+            setLength(length);
+        }
+    }
+
+    // transforms a chunk, in place or via its spare array
+    public interface Stage {
+        void apply(Chunk c);
+    }
+
+    // fills the next chunk of input, returns false at the end of the input
+    public interface Source {
+        boolean read(Chunk c) throws IOException;
+    }
+
+    // consumes a chunk; the chunk is recycled once write() returns
+    public interface Sink {
+        void write(Chunk c) throws IOException;
+    }
+
+    // Burrows-Wheeler transform; each call gets its own suffix array buffer,
+    // as the stage runs on one thread, and the buffer goes with the stage
+    public static Stage bwtEncode() {
+        return new Stage() {
+            private int[] buffer = new int[0];
+
+            public void apply(Chunk c) {
+                int n = c.length();
+                if (buffer.length < CircularSuffixArray.bufferLength(n))
+                    buffer = new int[CircularSuffixArray.bufferLength(n)];
+                byte[] out = c.spare(n);
+                c.setId(BurrowsWheeler.transform(c.data(), 0, n, out, new int[1], buffer));
+                c.swap(n);
+            }
+        };
+    }
+
+    public static final Stage BWT_DECODE = c -> {
+        byte[] out = c.spare(c.length());
+        BurrowsWheeler.inverseTransform(c.data(), 0, c.length(), c.id(), out);
+        c.swap(c.length());
+    };
+
+    public static final Stage MTF_ENCODE = c -> MoveToFront.encode(c.data(), 0, c.length());
+
+    public static final Stage MTF_DECODE = c -> MoveToFront.decode(c.data(), 0, c.length());
+
+    // end of stream marker, passed down the queues behind the last chunk
+    private static final Chunk END = new Chunk();
+
+    private final Stage[] stages;
+    private final int blockSize;
+    private final int queueCapacity;
+    private final int chunks;
+
+    public Pipeline(int blockSize, int queueCapacity, Stage... stages) {
+        if (blockSize <= 0 || queueCapacity <= 0 || stages == null)
+            throw new IllegalArgumentException();
+        for (Stage s : stages)
+            if (s == null) throw new IllegalArgumentException();
+        this.stages = stages.clone();
+        this.blockSize = blockSize;
+        this.queueCapacity = queueCapacity;
+        // enough chunks to fill every queue and keep every thread busy
+        this.chunks = (stages.length + 1) * (queueCapacity + 1) + 1;
+    }
+
+    // upper bound on the bytes held in chunks, for blocks of at most blockSize bytes
+    public long memoryCeiling() {
+        return 2L * chunks * blockSize;
+    }
+
+    // runs every chunk of source through the stages, in order, into sink
+    public void run(Source source, Sink sink) {
+        if (source == null || sink == null) throw new IllegalArgumentException();
+
+        BlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(chunks);
+        for (int i = 0; i < chunks; i++)
+            free.add(new Chunk());
+        List<BlockingQueue<Chunk>> queues = new ArrayList<BlockingQueue<Chunk>>();
+        for (int i = 0; i <= stages.length; i++)
+            queues.add(new ArrayBlockingQueue<Chunk>(queueCapacity));
+
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread caller = Thread.currentThread();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        threads.add(worker("pipeline-source", failure, caller, () -> {
+            BlockingQueue<Chunk> out = queues.get(0);
+            while (true) {
+                Chunk c = free.take();
+                c.setId(0);
+                c.setCrc(0);
+                c.setMode(0);
+                if (!source.read(c)) break;
+                out.put(c);
+            }
+            out.put(END);
+        }));
+        for (int i = 0; i < stages.length; i++) {
+            Stage stage = stages[i];
+            BlockingQueue<Chunk> in  = queues.get(i);
+            BlockingQueue<Chunk> out = queues.get(i + 1);
+            threads.add(worker("pipeline-stage-" + i, failure, caller, () -> {
+                for (Chunk c = in.take(); c != END; c = in.take()) {
+                    stage.apply(c);
+                    out.put(c);
+                }
+                out.put(END);
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+
+        try {
+            BlockingQueue<Chunk> in = queues.get(stages.length);
+            for (Chunk c = in.take(); c != END; c = in.take()) {
+                sink.write(c);
+                free.put(c);
+            }
+            for (Thread t : threads)
+                t.join();
+        }
+        catch (InterruptedException | IOException | RuntimeException e) {
+            failure.compareAndSet(null, e);
+            for (Thread t : threads)
+                t.interrupt();
+        }
+
+        Throwable e = failure.get();
+        if (e == null) return;
+        if (e instanceof IOException) throw new UncheckedIOException((IOException) e);
+        if (e instanceof RuntimeException) throw (RuntimeException) e;
+        if (e instanceof Error) throw (Error) e;
+        throw new IllegalStateException(e);
+    }
+
+    private interface Task {
+        void run() throws IOException, InterruptedException;
+    }
+
+    // thread that runs task and, on failure, records it and interrupts the caller
+    private static Thread worker(String name, AtomicReference<Throwable> failure, Thread caller, Task task) {
+        Thread t = new Thread(() -> {
+            try {
+                task.run();
+            }
+            catch (InterruptedException e) {
+                // another thread failed and is shutting the pipeline down
+            }
+            catch (Throwable e) {
+                if (failure.compareAndSet(null, e)) caller.interrupt();
+            }
+        }, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    // source of chunks of at most blockSize bytes read from in
+    public static Source blocks(ReadableByteChannel in, int blockSize) {
+        if (in == null || blockSize <= 0) throw new IllegalArgumentException();
+        return c -> {
+            c.ensureCapacity(blockSize);
+            ByteBuffer buf = ByteBuffer.wrap(c.data(), 0, blockSize);
+            readFully(in, buf);
+            c.setLength(buf.position());
+            return c.length() > 0;
+        };
+    }
+
+    // sink writing the raw bytes of every chunk to out
+    public static Sink bytes(WritableByteChannel out) {
+        if (out == null) throw new IllegalArgumentException();
+        return c -> {
+            ByteBuffer buf = c.buffer();
+            while (buf.hasRemaining())
+                out.write(buf);
+        };
+    }
+
+    // source reading framed chunks of at most maxLength bytes from in
+    public static Source frames(ReadableByteChannel in, int maxLength) {
+        if (in == null || maxLength <= 0) throw new IllegalArgumentException();
+        ByteBuffer header = ByteBuffer.allocate(8);
+        return c -> {
+            header.clear();
+            if (!readFully(in, header)) {
+                if (header.position() == 0) return false;
+                throw new IOException("truncated chunk header");
+            }
+            header.flip();
+            int n  = header.getInt();
+            int id = header.getInt();
+            if (n < 0 || n > maxLength) throw new IOException("corrupt chunk header");
+            c.ensureCapacity(n);
+            c.setLength(n);
+            c.setId(id);
+            if (!readFully(in, ByteBuffer.wrap(c.data(), 0, n))) throw new IOException("truncated chunk");
+            return true;
+        };
+    }
+
+    // sink writing every chunk to out as a frame
+    public static Sink frames(WritableByteChannel out) {
+        if (out == null) throw new IllegalArgumentException();
+        ByteBuffer header = ByteBuffer.allocate(8);
+        return c -> {
+            header.clear();
+            header.putInt(c.length()).putInt(c.id()).flip();
+            while (header.hasRemaining())
+                out.write(header);
+            ByteBuffer buf = c.buffer();
+            while (buf.hasRemaining())
+                out.write(buf);
+        };
+    }
+
+    // fills buf, returns false if the channel ends first
+    private static boolean readFully(ReadableByteChannel in, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining())
+            if (in.read(buf) < 0) return false;
+        return true;
+    }
+
+    // if args[0] is '-', apply Burrows-Wheeler and then move-to-front encoding (args[1] is an optional block size)
+    // if args[0] is '+', apply move-to-front and then Burrows-Wheeler decoding (args[1] is the
+    // block size of the encoder, blocks larger than it are rejected)
+    public static void main(String[] args) {
+        ReadableByteChannel in  = Channels.newChannel(System.in);
+        WritableByteChannel out = Channels.newChannel(System.out);
+        if (args[0].equals("-")) {
+            int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_BLOCK_SIZE;
+            new Pipeline(blockSize, DEFAULT_QUEUE_CAPACITY, bwtEncode(), MTF_ENCODE)
+                .run(blocks(in, blockSize), frames(out));
+        }
+        else if (args[0].equals("+")) {
+            int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_BLOCK_SIZE;
+            new Pipeline(blockSize, DEFAULT_QUEUE_CAPACITY, MTF_DECODE, BWT_DECODE)
+                .run(frames(in, blockSize), bytes(out));
+        }
+        else throw new IllegalArgumentException();
+        System.out.flush();
+    }
+}
@@ -0,0 +1,96 @@
+/******************************************************************************
+ *  Compilation:  javac SuffixArrayDoublingRatio.java
+ *  Execution:    java SuffixArrayDoublingRatio [maxLength]
+ *  Dependencies: CircularSuffixArray.java StdRandom.java StdOut.java Stopwatch.java
+ *
+ *  Doubling-ratio benchmark for the CircularSuffixArray engines. For each
+ *  input family the length doubles every round; a time ratio that stays
+ *  near 2 means the construction is (near) linear. The 3-way quicksort
+ *  engine is skipped once a round takes longer than TIME_LIMIT seconds,
+ *  since it goes quadratic on the repetitive inputs.
+ *
+ *  % java SuffixArrayDoublingRatio 4194304
+ *  all-A         n   auto   ratio   doubling   ratio   quick3way   ratio
+ *  ...
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+
+public class SuffixArrayDoublingRatio {
+
+    private static final int MIN_LENGTH = 1 << 14;
+    private static final double TIME_LIMIT = 5.0;
+
+    private static final String[] FAMILIES = { "all-A", "periodic", "duplicated", "random" };
+
+    private static String generate(String family, int n) {
+        char[] a = new char[n];
+        if (family.equals("all-A")) {
+            for (int i = 0; i < n; i++)
+                a[i] = 'A';
+        }
+        else if (family.equals("periodic")) {
+            for (int i = 0; i < n; i++)
+                a[i] = "ABRACADABRA!".charAt(i % 12);
+        }
+        else if (family.equals("duplicated")) {
+            // a random block of 4096 chars repeated end to end, like duplicated log lines
+            char[] block = new char[4096];
+            for (int i = 0; i < block.length; i++)
+                block[i] = (char) StdRandom.uniform(256);
+            for (int i = 0; i < n; i++)
+                a[i] = block[i % block.length];
+        }
+        else {
+            for (int i = 0; i < n; i++)
+                a[i] = (char) StdRandom.uniform(256);
+        }
+        return new String(a);
+    }
+
+    // elapsed seconds
+    private static double time(String s, CircularSuffixArray.Engine engine) {
+        Stopwatch sw = new Stopwatch();
+        new CircularSuffixArray(s, engine);
+        return sw.elapsedTime();
+    }
+
+    public static void main(String[] args) {
+        int maxLength = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 22;
+        CircularSuffixArray.Engine[] engines = {
+            CircularSuffixArray.Engine.AUTO,
+            CircularSuffixArray.Engine.DOUBLING,
+            CircularSuffixArray.Engine.QUICK3WAY
+        };
+
+        for (String family : FAMILIES) {
+            StdOut.printf("%-10s %10s", family, "n");
+            for (CircularSuffixArray.Engine engine : engines)
+                StdOut.printf(" %10s %6s", engine.name().toLowerCase(), "ratio");
+            StdOut.println();
+
+            double[] prev = new double[engines.length];
+            boolean[] skip = new boolean[engines.length];
+            for (int n = MIN_LENGTH; n <= maxLength; n += n) {
+                String s = generate(family, n);
+                StdOut.printf("%-10s %10d", "", n);
+                for (int e = 0; e < engines.length; e++) {
+                    if (skip[e]) {
+                        StdOut.printf(" %10s %6s", "-", "-");
+                        continue;
+                    }
+                    double t = time(s, engines[e]);
+                    if (prev[e] > 0) StdOut.printf(" %9.3fs %6.2f", t, t / prev[e]);
+                    else             StdOut.printf(" %9.3fs %6s", t, "-");
+                    prev[e] = t;
+                    if (t > TIME_LIMIT) skip[e] = true;
+                }
+                StdOut.println();
+            }
+            StdOut.println();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/******************************************************************************
+ *  Compilation:  javac ZeroRunLength.java
+ *  Execution:    none
+ *  Dependencies: none
+ *
+ *  Zero run-length coding of move-to-front output, as in bzip2. A run of k
+ *  zeros is written as the digits of k in bijective base 2, least significant
+ *  first, using RUNA (digit 1) and RUNB (digit 2). Every other rank r is
+ *  written as r + 1, except that ranks 254 and 255 do not fit and become the
+ *  escape byte 255 followed by r - 254.
+ *
+ *      rank    0-run of k    1..253    254        255
+ *      bytes   RUNA/RUNB     r + 1     255 0      255 1
+ *
+ ******************************************************************************/
+
+import java.util.Arrays;
+
+public class ZeroRunLength {
+
+    private static final int RUNA   = 0;
+    private static final int RUNB   = 1;
+    private static final int ESCAPE = 255;
+
+    // largest number of bytes encode() can produce from len bytes
+    public static int maxEncodedLength(int len) {
+        return 2 * len;
+    }
+
+    // encodes a[off..off+len) into out, returns the number of bytes written
+    public static int encode(byte[] a, int off, int len, byte[] out) {
+        int n = 0;
+        int run = 0;
+        for (int i = off; i < off + len; i++) {
+            int r = a[i] & 0xff;
+            if (r == 0) {
+                run++;
+                continue;
+            }
+            if (run > 0) {
+                n = writeRun(run, out, n);
+                run = 0;
+            }
+            if (r < ESCAPE - 1) {
+                out[n++] = (byte) (r + 1);
+            }
+            else {
+                out[n++] = (byte) ESCAPE;
+                out[n++] = (byte) (r - (ESCAPE - 1));
+            }
+        }
+        if (run > 0) n = writeRun(run, out, n);
+        return n;
+    }
+
+    // bijective base-2 digits of run, least significant first
+    private static int writeRun(int run, byte[] out, int n) {
+        run--;
+        while (true) {
+            out[n++] = (byte) ((run & 1) == 0 ? RUNA : RUNB);
+            if (run < 2) return n;
+            run = (run - 2) >>> 1;
+        }
+    }
+
+    // number of bytes decode() produces from a[off..off+len)
+    public static int decodedLength(byte[] a, int off, int len) {
+        long n = 0;
+        long run = 0, weight = 1;
+        for (int i = off; i < off + len; i++) {
+            int b = a[i] & 0xff;
+            if (b == RUNA || b == RUNB) {
+                run += weight * (b + 1);
+                weight <<= 1;
+                if (weight > Integer.MAX_VALUE) throw new IllegalArgumentException("corrupt zero run");
+                continue;
+            }
+            n += run;
+            run = 0;
+            weight = 1;
+            if (b == ESCAPE) {
+                if (++i == off + len) throw new IllegalArgumentException("truncated escape");
+            }
+            n++;
+        }
+        n += run;
+        if (n > Integer.MAX_VALUE) throw new IllegalArgumentException("decoded length too large");
+        return (int) n;
+    }
+
+    // decodes a[off..off+len) into out, returns the number of bytes written
+    public static int decode(byte[] a, int off, int len, byte[] out) {
+        int n = 0;
+        int run = 0, weight = 1;
+        for (int i = off; i < off + len; i++) {
+            int b = a[i] & 0xff;
+            if (b == RUNA || b == RUNB) {
+                run += weight * (b + 1);
+                weight <<= 1;
+                continue;
+            }
+            Arrays.fill(out, n, n + run, (byte) 0);
+            n += run;
+            run = 0;
+            weight = 1;
+            if (b == ESCAPE) out[n++] = (byte) ((ESCAPE - 1) + (a[++i] & 0xff));
+            else             out[n++] = (byte) (b - 1);
+        }
+        Arrays.fill(out, n, n + run, (byte) 0);
+        return n + run;
+    }
+}
@@ -10,7 +10,7 @@
  *
  ******************************************************************************/
 
-import edu.prin/Users/crown/Desktop/java/Part2/Seam/ResizeDemo.javaceton.cs.algs4.Picture;
+import edu.princeton.cs.algs4.Picture;
 import edu.princeton.cs.algs4.StdOut;
 import edu.princeton.cs.algs4.Stopwatch;
 
@@ -30,15 +30,8 @@ public class ResizeDemo {
 
         Stopwatch sw = new Stopwatch();
 
-        for (int i = 0; i < removeRows; i++) {
-            int[] horizontalSeam = sc.findHorizontalSeam();
-            sc.removeHorizontalSeam(horizontalSeam);
-        }
-
-        for (int i = 0; i < removeColumns; i++) {
-            int[] verticalSeam = sc.findVerticalSeam();
-            sc.removeVerticalSeam(verticalSeam);
-        }
+        sc.removeHorizontalSeams(removeRows);
+        sc.removeVerticalSeams(removeColumns);
         Picture outputImg = sc.picture();
 
         StdOut.printf("new image size is %d columns by %d rows\n", sc.width(), sc.height());
@@ -1,231 +1,464 @@
 import edu.princeton.cs.algs4.Picture;
 import java.awt.Color;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class SeamCarver {
 
     private static final double BORDER_ENERGY = 1000;
-
-    private Picture pic;
-    private int ht;
-    private int wd;
-    private double[][] energies;
+    private static final int    TILE          = 32;     // block size of transpose()
+    private static final int    MIN_CHUNK     = 1024;   // fewest columns a task of the parallel DP takes
+    private static final int    MIN_BAND      = 1 << 16; // fewest pixels a task of calEnergies() takes
+
+    // the buffers hold the picture, or its transpose when transposed is set,
+    // as rows of cols pixels: entry r*cols + c is column c of row r. Colors
+    // are packed 0xRRGGBB: Color.getRGB() with its alpha byte masked off.
+    // Seams are always found and removed as vertical seams of the buffers,
+    // whose rows are contiguous; a horizontal seam of the picture is a
+    // vertical seam of its transpose, and the buffers are only transposed
+    // when the direction of the seams changes. Energy is the same on both,
+    // as it treats x and y alike
+    private int[] rgb;
+    private double[] energies;
+    private int[] spareRgb;             // targets of transpose(), of the same length
+    private double[] spareEnergies;
+    private int rows;
+    private int cols;
+    private boolean transposed;
+
+    // the seam DP over the buffers: dp[i] is the energy of the cheapest path
+    // from the top row to pixel i, not counting the top row, and edgeTo[i] is
+    // the column of the pixel above i on that path minus the column of i.
+    // Both are kept while seams are removed in the same direction, and only
+    // the part a removed seam can change is computed again
+    private double[] dp;
+    private byte[] edgeTo;
+    private boolean dpValid;
+
+    // during removeVerticalSeams() and removeHorizontalSeams() the buffers
+    // keep their rows of stride entries, and live[r*stride + c] is the column
+    // of the buffers that holds column c of row r of what is left; removing a
+    // seam only shifts live. The batch compacts the buffers once at its end
+    private int[] live;
+    private int stride;
+
+    private final ForkJoinPool pool;    // null unless running in parallel
 
     // create a seam carver object based on the given picture
     public SeamCarver(Picture picture) {
+        this(picture, null);
+    }
+
+    // create a seam carver that computes energies and seams on the given pool;
+    // big pictures split energies into bands of rows and each row of the seam
+    // DP into chunks of columns, all chunks of a row finishing before the next
+    public SeamCarver(Picture picture, ForkJoinPool pool) {
         if (picture == null) throw new java.lang.IllegalArgumentException();
 
-        this.pic = new Picture(picture);
-        ht  = pic.height();
-        wd  = pic.width();
+        this.pool = pool;
+        rows = picture.height();
+        cols = picture.width();
+        rgb  = new int[cols * rows];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                rgb[y * cols + x] = picture.get(x, y).getRGB() & 0xffffff;
+            }
+        }
 
         calEnergies();
-    }     
+    }
 
     private void calEnergies() {
-        energies = new double[wd][ht];
-        for (int x = 0; x < wd; x++) {
-            for (int y = 0; y < ht; y++) {
-                energies[x][y] = calEnergy(x, y);
+        energies = new double[cols * rows];
+        int bands = pool == null ? 1 : Math.min(4 * pool.getParallelism(), cols * rows / MIN_BAND);
+        if (bands < 2) {
+            calEnergies(0, rows);
+            return;
+        }
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[bands];
+        for (int b = 0; b < bands; b++) {
+            int lo = (int) ((long) rows * b / bands), hi = (int) ((long) rows * (b + 1) / bands);
+            tasks[b] = ForkJoinTask.adapt(() -> calEnergies(lo, hi));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+    // energies of rows lo .. hi-1
+    private void calEnergies(int lo, int hi) {
+        for (int r = lo; r < hi; r++) {
+            for (int c = 0; c < cols; c++) {
+                energies[r * cols + c] = calEnergy(c, r);
             }
         }
-    } 
+    }
 
     private void validate(int x, int y) {
-        if (x < 0 || y < 0 || x >= wd || y >= ht) 
+        if (x < 0 || y < 0 || x >= width() || y >= height())
             throw new java.lang.IllegalArgumentException();
-    }  
+    }
+
+    // index of pixel (x, y) of the picture in the buffers
+    private int index(int x, int y) {
+        return transposed ? x * cols + y : y * cols + x;
+    }
 
     // current picture
     public Picture picture() {
-        Picture picture = new Picture(pic);
+        Picture picture = new Picture(width(), height());
+        for (int y = 0; y < height(); y++) {
+            for (int x = 0; x < width(); x++) {
+                picture.set(x, y, new Color(rgb[index(x, y)]));
+            }
+        }
         return picture;
-    }                      
+    }
 
-    // width of current picture  
+    // width of current picture
     public     int width() {
-        return wd;
-    }                          
+        return transposed ? rows : cols;
+    }
 
     // height of current picture
     public     int height() {
-        return ht;
-    }                          
+        return transposed ? cols : rows;
+    }
 
     // energy of pixel at column x and row y
     public  double energy(int x, int y) {
         validate(x, y);
-        return energies[x][y];
-    }      
+        return energies[index(x, y)];
+    }
 
-    private double calEnergy(int x, int y) {
-        validate(x, y);
-        if (x == 0 || x == wd - 1 || y == ht - 1 || y == 0) return BORDER_ENERGY;
-
-        Color  left  = pic.get(x - 1, y);
-        Color  right = pic.get(x + 1, y);
-        Color  up    = pic.get(x, y - 1);
-        Color  down  = pic.get(x, y + 1);
-        double delRx = right.getRed()   - left.getRed();
-        double delGx = right.getGreen() - left.getGreen();
-        double delBx = right.getBlue()  - left.getBlue();
-        double delRy = down.getRed()    - up.getRed();
-        double delGy = down.getGreen()  - up.getGreen();
-        double delBy = down.getBlue()   - up.getBlue();
+    // buffer index of the pixel in column c and row r
+    private int pixel(int r, int c) {
+        return live == null ? r * cols + c : r * stride + live[r * stride + c];
+    }
+
+    // energy of the pixel in column c and row r of the buffers
+    private double calEnergy(int c, int r) {
+        if (c == 0 || c == cols - 1 || r == rows - 1 || r == 0) return BORDER_ENERGY;
+
+        int left, right, up, down;
+        if (live == null) {
+            int i = r * cols + c;
+            left  = rgb[i - 1];
+            right = rgb[i + 1];
+            up    = rgb[i - cols];
+            down  = rgb[i + cols];
+        }
+        else {
+            left  = rgb[pixel(r, c - 1)];
+            right = rgb[pixel(r, c + 1)];
+            up    = rgb[pixel(r - 1, c)];
+            down  = rgb[pixel(r + 1, c)];
+        }
+        int delRx = (right >> 16 & 0xff) - (left >> 16 & 0xff);
+        int delGx = (right >>  8 & 0xff) - (left >>  8 & 0xff);
+        int delBx = (right       & 0xff) - (left       & 0xff);
+        int delRy = (down  >> 16 & 0xff) - (up   >> 16 & 0xff);
+        int delGy = (down  >>  8 & 0xff) - (up   >>  8 & 0xff);
+        int delBy = (down        & 0xff) - (up         & 0xff);
         return Math.sqrt(delRx * delRx + delGx * delGx + delBx * delBx
              + delRy * delRy + delGy * delGy + delBy * delBy);
-    }        
+    }
 
-    // sequence of indices for horizontal seam
-    public   int[] findHorizontalSeam() {
-        int[]  horSeam = new int[wd];
-        int[][] edgeTo = new int[wd][ht];
-        double[][]  dp = new double[wd][ht];
+    // puts the buffers in the given orientation
+    private void orient(boolean t) {
+        if (transposed != t) transpose();
+    }
 
-        /** initiate the array of dp and edgeTo */
-        for (int x = 0; x < wd; x++) {
-            for (int y = 0; y < ht; y++) {
-                dp[x][y] = Double.POSITIVE_INFINITY;
-                if (x == 0) dp[x][y] = 0;
-                edgeTo[x][y] = -1;
-            }
+    // transposes the buffers block by block, so both sides of the copy stay in cache
+    private void transpose() {
+        if (spareRgb == null || spareRgb.length < cols * rows) {
+            spareRgb      = new int[rgb.length];
+            spareEnergies = new double[energies.length];
         }
-
-        for (int x = 0; x < wd - 1; x++) {
-            for (int y = 0; y < ht; y++) {
-                if (y > 0)       relaxH(x, y, x + 1, y - 1, dp, edgeTo);
-                                 relaxH(x, y, x + 1, y,     dp, edgeTo);
-                if (y <= ht - 2) relaxH(x, y, x + 1, y + 1, dp, edgeTo);
+        for (int r0 = 0; r0 < rows; r0 += TILE) {
+            for (int c0 = 0; c0 < cols; c0 += TILE) {
+                for (int r = r0; r < Math.min(r0 + TILE, rows); r++) {
+                    for (int c = c0; c < Math.min(c0 + TILE, cols); c++) {
+                        spareRgb[c * rows + r]      = rgb[r * cols + c];
+                        spareEnergies[c * rows + r] = energies[r * cols + c];
+                    }
+                }
             }
         }
+        int[] t = rgb;
+        rgb = spareRgb;
+        spareRgb = t;
+        double[] e = energies;
+        energies = spareEnergies;
+        spareEnergies = e;
+        int n = rows;
+        rows = cols;
+        cols = n;
+        transposed = !transposed;
+        dpValid = false;
+    }
 
-        int yIndex = -1;
+    // sequence of indices for horizontal seam
+    public   int[] findHorizontalSeam() {
+        orient(true);
+        return findSeam();
+    }
+
+    // sequence of indices for vertical seam
+    public   int[] findVerticalSeam() {
+        orient(false);
+        return findSeam();
+    }
+
+    // vertical seam of the buffers
+    private int[] findSeam() {
+        if (!dpValid) relaxAll();
+        int[] seam = new int[rows];
+
+        int cIndex = -1;
         double dpMin = Double.POSITIVE_INFINITY;
-        for (int y = 0; y < ht; y++) {
-            if (dp[wd - 1][y] < dpMin) {
-                dpMin  = dp[wd - 1][y];
-                yIndex = y;
+        for (int c = 0; c < cols; c++) {
+            if (dp[pixel(rows - 1, c)] < dpMin) {
+                dpMin  = dp[pixel(rows - 1, c)];
+                cIndex = c;
             }
         }
 
-        int index = yIndex;
-        for (int x = wd - 1; x >= 0; x--) {
-            horSeam[x] = index;
-            index = edgeTo[x][index];
-        }
-        return horSeam;
-    }             
-
-    private void relaxH(int fromX, int fromY,  int toX, int toY, double[][] dp, int[][] edgeTo) {
-        if (Double.compare(dp[fromX][fromY] + energies[toX][toY], dp[toX][toY]) < 0) {
-            dp[toX][toY] = dp[fromX][fromY] + energies[toX][toY];
-            edgeTo[toX][toY] = fromY;
+        int index = cIndex;
+        for (int r = rows - 1; r >= 0; r--) {
+            seam[r] = index;
+            index += edgeTo[pixel(r, index)];
         }
+        return seam;
     }
 
-    // sequence of indices for vertical seam
-    public   int[] findVerticalSeam() {
-        int[]  verSeam = new int[ht];
-        int[][] edgeTo = new int[wd][ht];
-        double[][]  dp = new double[wd][ht];
-
-        /** initiate the array of dp and edgeTo */
-        for (int x = 0; x < wd; x++) {
-            for (int y = 0; y < ht; y++) {
-                dp[x][y] = Double.POSITIVE_INFINITY;
-                if (y == 0) dp[x][y] = 0;
-                edgeTo[x][y] = -1;
+    // the whole DP
+    private void relaxAll() {
+        if (dp == null || dp.length < cols * rows) {
+            dp     = new double[rgb.length];
+            edgeTo = new byte[rgb.length];
+        }
+        for (int c = 0; c < cols; c++) {
+            dp[c]     = 0;
+            edgeTo[c] = 0;
+        }
+        int chunks = pool == null ? 1 : Math.min(pool.getParallelism(), cols / MIN_CHUNK);
+        if (chunks < 2) {
+            for (int r = 1; r < rows; r++) {
+                relaxRow(r, 0, cols);
             }
         }
+        else {
+            pool.invoke(ForkJoinTask.adapt(() -> relaxRows(chunks)));
+        }
+        dpValid = true;
+    }
 
-        for (int y = 0; y < ht - 1; y++) {
-            for (int x = 0; x < wd; x++) {
-                if (x > 0)       relaxV(x, y, x - 1, y + 1, dp, edgeTo);
-                                 relaxV(x, y, x,     y + 1, dp, edgeTo);
-                if (x <= wd - 2) relaxV(x, y, x + 1, y + 1, dp, edgeTo);
+    // the DP rows one after the other, each split into chunks of columns
+    // that run in parallel; a row only reads the row above it
+    private void relaxRows(int chunks) {
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[chunks];
+        for (int r = 1; r < rows; r++) {
+            int row = r;
+            for (int k = 0; k < chunks; k++) {
+                int lo = (int) ((long) cols * k / chunks), hi = (int) ((long) cols * (k + 1) / chunks);
+                tasks[k] = ForkJoinTask.adapt(() -> relaxRow(row, lo, hi));
             }
+            ForkJoinTask.invokeAll(tasks);
         }
+    }
 
-        int xIndex = -1;
-        double dpMin = Double.POSITIVE_INFINITY;
-        for (int x = 0; x < wd; x++) {
-            if (dp[x][ht-1] < dpMin) {
-                dpMin  = dp[x][ht-1];
-                xIndex = x;
+    // each pixel of row r from column lo to hi-1 takes the cheapest of its
+    // three upper neighbors, the leftmost one on ties, as relaxing them left
+    // to right would
+    private void relaxRow(int r, int lo, int hi) {
+        for (int c = lo; c < hi; c++) {
+            int    i    = r * cols + c;
+            double best = dp[i - cols] + energies[i];
+            int    from = c;
+            if (c > 0 && dp[i - cols - 1] + energies[i] <= best) {
+                best = dp[i - cols - 1] + energies[i];
+                from = c - 1;
             }
+            if (c < cols - 1 && dp[i - cols + 1] + energies[i] < best) {
+                best = dp[i - cols + 1] + energies[i];
+                from = c + 1;
+            }
+            dp[i]     = best;
+            edgeTo[i] = (byte) (from - c);
         }
+    }
 
-        int index = xIndex;
-        for (int y = ht - 1; y >= 0; y--) {
-            verSeam[y] = index;
-            index = edgeTo[index][y];
+    // relaxRow() during a batch, through the live map; the dp of every
+    // column it computes again is kept in before
+    private void relaxLive(int r, int lo, int hi, double[] before) {
+        int row = r * stride, above = row - stride;
+        for (int c = lo; c < hi; c++) {
+            int    i    = row + live[row + c];
+            double best = dp[above + live[above + c]] + energies[i];
+            int    from = c;
+            if (c > 0 && dp[above + live[above + c - 1]] + energies[i] <= best) {
+                best = dp[above + live[above + c - 1]] + energies[i];
+                from = c - 1;
+            }
+            if (c < cols - 1 && dp[above + live[above + c + 1]] + energies[i] < best) {
+                best = dp[above + live[above + c + 1]] + energies[i];
+                from = c + 1;
+            }
+            before[c] = dp[i];
+            dp[i]     = best;
+            edgeTo[i] = (byte) (from - c);
         }
-        return verSeam;
-    }    
+    }
 
-    private void relaxV(int fromX, int fromY,  int toX, int toY, double[][] dp, int[][] edgeTo) {
-        if (Double.compare(dp[fromX][fromY] + energies[toX][toY], dp[toX][toY]) < 0) {
-            dp[toX][toY] = dp[fromX][fromY] + energies[toX][toY];
-            edgeTo[toX][toY] = fromX;
+    // brings the DP up to date after the seam was removed from the buffers
+    // and from dp and edgeTo. A pixel can only get a new path if it was
+    // beside the seam (its energy or the pixels above it changed) or if one
+    // of the pixels above it did, so row by row only the columns near the
+    // seam and below the changes of the row above are computed again
+    private void updateDp(int[] seam) {
+        double[] before = new double[cols];
+        int lo = 0, hi = -1;    // columns of the row above whose dp changed
+        for (int r = 1; r < rows; r++) {
+            int from = Math.max(seam[r] - 2, 0), to = Math.min(seam[r] + 1, cols - 1);
+            if (lo <= hi) {
+                from = Math.min(from, Math.max(lo - 1, 0));
+                to   = Math.max(to,   Math.min(hi + 1, cols - 1));
+            }
+            if (live == null) {
+                System.arraycopy(dp, r * cols + from, before, from, to - from + 1);
+                relaxRow(r, from, to + 1);
+            }
+            else relaxLive(r, from, to + 1, before);
+            lo = from;
+            hi = to;
+            while (lo <= hi && dp[pixel(r, lo)] == before[lo]) lo++;
+            while (hi >= lo && dp[pixel(r, hi)] == before[hi]) hi--;
         }
-    }    
+    }
 
     // remove horizontal seam from current picture
     public    void removeHorizontalSeam(int[] seam) {
         if (seam == null) throw new java.lang.IllegalArgumentException();
+        if (height() <= 1) throw new java.lang.IllegalArgumentException();
 
-        if (seam.length < 1 || seam.length != wd) 
-            throw new java.lang.IllegalArgumentException();
-        for (int i = 0; i < seam.length; i++) {
-            if (seam[i] < 0 || seam[i] >= ht)
-                throw new java.lang.IllegalArgumentException();
-        }
-        for (int i = 1; i < seam.length; i++) {
-            if (Math.abs(seam[i] - seam[i-1]) > 1)
-                throw new java.lang.IllegalArgumentException();
-        }
-        Picture tmp = new Picture(wd, ht - 1);
-        for (int x = 0; x < wd; x++) {
-            for (int y = 0; y < seam[x]; y++) {
-                tmp.set(x, y, pic.get(x, y));
-            }
-            for (int y = seam[x]; y < ht - 1; y++) {
-                tmp.set(x, y, pic.get(x, y + 1));
-            }
-        }
-        pic = tmp;
-        wd  = tmp.width();
-        ht  = tmp.height();
-        calEnergies();
-    }  
+        validateSeam(seam, width(), height());
+        orient(true);
+        removeSeam(seam);
+    }
 
     // remove vertical seam from current picture
     public    void removeVerticalSeam(int[] seam) {
         if (seam == null) throw new java.lang.IllegalArgumentException();
+        if (width() <= 1) throw new java.lang.IllegalArgumentException();
+
+        validateSeam(seam, height(), width());
+        orient(false);
+        removeSeam(seam);
+    }
 
-        if (seam.length < 1 || seam.length != ht) 
+    // remove k horizontal seams, each the minimum one of the picture left by
+    // those before, as k calls of findHorizontalSeam() and
+    // removeHorizontalSeam() would
+    public    void removeHorizontalSeams(int k) {
+        if (k < 0 || k >= height()) throw new java.lang.IllegalArgumentException();
+
+        orient(true);
+        removeSeams(k);
+    }
+
+    // remove k vertical seams, each the minimum one of the picture left by
+    // those before, as k calls of findVerticalSeam() and
+    // removeVerticalSeam() would
+    public    void removeVerticalSeams(int k) {
+        if (k < 0 || k >= width()) throw new java.lang.IllegalArgumentException();
+
+        orient(false);
+        removeSeams(k);
+    }
+
+    // removes k vertical seams of the buffers through the live map, then
+    // compacts the buffers once
+    private void removeSeams(int k) {
+        if (k == 0) return;
+        if (!dpValid) relaxAll();
+        stride = cols;
+        live = new int[rows * stride];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                live[r * stride + c] = c;
+            }
+        }
+        for (int n = 0; n < k; n++) {
+            removeSeam(findSeam());
+        }
+        compact();
+    }
+
+    // ends a batch: every pixel left moves to column c of row r at the new
+    // width. Its target is never after it and the targets only grow, so one
+    // forward pass in place reads every entry before it is overwritten
+    private void compact() {
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int from = r * stride + live[r * stride + c], to = r * cols + c;
+                rgb[to]      = rgb[from];
+                energies[to] = energies[from];
+                dp[to]       = dp[from];
+                edgeTo[to]   = edgeTo[from];
+            }
+        }
+        live = null;
+    }
+
+    // a seam has one entry in [0, range) per step, each at most 1 from the last
+    private static void validateSeam(int[] seam, int length, int range) {
+        if (seam.length < 1 || seam.length != length)
             throw new java.lang.IllegalArgumentException();
         for (int i = 0; i < seam.length; i++) {
-            if (seam[i] < 0 || seam[i] >= wd)
+            if (seam[i] < 0 || seam[i] >= range)
                 throw new java.lang.IllegalArgumentException();
         }
         for (int i = 1; i < seam.length; i++) {
             if (Math.abs(seam[i] - seam[i-1]) > 1)
                 throw new java.lang.IllegalArgumentException();
         }
-        Picture tmp = new Picture(wd - 1, ht);
-        for (int y = 0; y < ht; y++) {
-            for (int x = 0; x < seam[y]; x++) {
-                tmp.set(x, y, pic.get(x, y));
+    }
+
+    // removes a vertical seam of the buffers, or during a batch of live
+    private void removeSeam(int[] seam) {
+        if (live == null) {
+            closeGaps(rgb, seam);
+            closeGaps(energies, seam);
+            if (dpValid) {
+                closeGaps(dp, seam);
+                closeGaps(edgeTo, seam);
             }
-            for (int x = seam[y]; x < wd - 1; x++) {
-                tmp.set(x, y, pic.get(x + 1, y));
+        }
+        else {
+            for (int r = 0; r < rows; r++) {
+                int base = r * stride;
+                System.arraycopy(live, base + seam[r] + 1, live, base + seam[r], cols - 1 - seam[r]);
             }
         }
-        pic = tmp;
-        wd  = tmp.width();
-        ht  = tmp.height();
-        calEnergies();
-    }    
+        cols = cols - 1;
+        // only the two pixels beside the removed one change energy
+        for (int r = 0; r < rows; r++) {
+            for (int c = Math.max(seam[r] - 1, 0); c <= Math.min(seam[r], cols - 1); c++) {
+                energies[pixel(r, c)] = calEnergy(c, r);
+            }
+        }
+        if (dpValid) updateDp(seam);
+    }
+
+    // closes the gap the seam leaves in each row of buffer a, and the rows up
+    // to the new width; the buffer keeps its length, only the first
+    // (cols - 1) * rows entries are used after
+    private void closeGaps(Object a, int[] seam) {
+        for (int r = 0; r < rows; r++) {
+            int from = r * cols, to = r * (cols - 1);
+            System.arraycopy(a, from, a, to, seam[r]);
+            System.arraycopy(a, from + seam[r] + 1, a, to + seam[r], cols - 1 - seam[r]);
+        }
+    }
 
     public static void main(String[] args) {
 